@@ -0,0 +1,92 @@
+package com.hjonas.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class PhaseBenchmark {
+	@Param({ "fib", "loops", "strings", "closures", "blocks" })
+	String program;
+
+	private final ErrorReporter reporter = new ErrorReporter(System.out, System.err);
+	private String source;
+	private TokenBuffer tokens;
+	private List<Stmt> statements;
+	private List<Stmt> resolved;
+	private Interpreter interpreter;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		source = load("/programs/" + program + ".lox");
+		tokens = new Scanner(source, reporter).scanTokens();
+		statements = new Parser(tokens, reporter).parse();
+
+		// the interpreter gets its own tree so the resolve benchmark never races it
+		resolved = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+		new Resolver(reporter).resolve(resolved);
+
+		if (reporter.hadError) {
+			throw new IllegalStateException("failed to compile " + program + ".lox");
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void freshInterpreter() {
+		interpreter = new Interpreter(reporter, System.out);
+	}
+
+	@Benchmark
+	public TokenBuffer scan() {
+		return new Scanner(source, reporter).scanTokens();
+	}
+
+	@Benchmark
+	public List<Stmt> parse() {
+		return new Parser(tokens, reporter).parse();
+	}
+
+	@Benchmark
+	public List<Stmt> resolve() {
+		new Resolver(reporter).resolve(statements);
+		return statements;
+	}
+
+	@Benchmark
+	public Environment interpret() {
+		interpreter.interpret(resolved);
+		return interpreter.globals;
+	}
+
+	private static String load(String resource) {
+		try (InputStream in = PhaseBenchmark.class.getResourceAsStream(resource)) {
+			if (in == null) {
+				throw new IllegalArgumentException("missing benchmark program " + resource);
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
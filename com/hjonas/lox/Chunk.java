@@ -0,0 +1,62 @@
+package com.hjonas.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class Chunk {
+	final String name;
+	final int arity;
+	final int frameSize;
+
+	byte[] code = new byte[64];
+	int[] lines = new int[64];
+	int count;
+	Object[] constants;
+	// global cells looked up by the vm, cached next to the name constant they belong to
+	GlobalCell[] cells;
+	int maxStack;
+
+	private final List<Object> pool = new ArrayList<>();
+	private final Map<Object, Integer> literals = new HashMap<>();
+
+	Chunk(String name, int arity, int frameSize) {
+		this.name = name;
+		this.arity = arity;
+		this.frameSize = frameSize;
+	}
+
+	void write(int value, int line) {
+		if (count == code.length) {
+			code = Arrays.copyOf(code, count * 2);
+			lines = Arrays.copyOf(lines, count * 2);
+		}
+		code[count] = (byte) value;
+		lines[count] = line;
+		count++;
+	}
+
+	int addConstant(Object value) {
+		if (value instanceof Double || value instanceof String) {
+			Integer index = literals.get(value);
+			if (index != null) {
+				return index;
+			}
+			literals.put(value, pool.size());
+		}
+
+		pool.add(value);
+		return pool.size() - 1;
+	}
+
+	void finish() {
+		code = Arrays.copyOf(code, count);
+		lines = Arrays.copyOf(lines, count);
+		constants = pool.toArray();
+		cells = new GlobalCell[constants.length];
+		pool.clear();
+		literals.clear();
+	}
+}
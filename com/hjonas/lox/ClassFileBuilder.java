@@ -0,0 +1,307 @@
+package com.hjonas.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class ClassFileBuilder {
+	// Java 5 class files are verified by type inference and need no stack map frames
+	private static final int VERSION = 49;
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	static final int DCONST_0 = 0x0e;
+	static final int BIPUSH = 0x10;
+	static final int LDC2_W = 0x14;
+	static final int DLOAD = 0x18;
+	static final int ALOAD_0 = 0x2a;
+	static final int ALOAD_1 = 0x2b;
+	static final int ALOAD_2 = 0x2c;
+	static final int AALOAD = 0x32;
+	static final int DSTORE = 0x39;
+	static final int POP2 = 0x58;
+	static final int DUP2 = 0x5c;
+	static final int DADD = 0x63;
+	static final int DSUB = 0x67;
+	static final int DMUL = 0x6b;
+	static final int DDIV = 0x6f;
+	static final int DNEG = 0x77;
+	static final int LCMP = 0x94;
+	static final int DCMPL = 0x97;
+	static final int DCMPG = 0x98;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IFLT = 0x9b;
+	static final int IFGE = 0x9c;
+	static final int IFGT = 0x9d;
+	static final int IFLE = 0x9e;
+	static final int GOTO = 0xa7;
+	static final int DRETURN = 0xaf;
+	static final int RETURN = 0xb1;
+	static final int GETSTATIC = 0xb2;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int INVOKEINTERFACE = 0xb9;
+	static final int ATHROW = 0xbf;
+	static final int CHECKCAST = 0xc0;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> entries = new HashMap<>();
+	private final List<byte[]> methods = new ArrayList<>();
+	private int poolCount = 1;
+
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+
+	ClassFileBuilder(String name, String superName, String... interfaceNames) {
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+		interfaces = new int[interfaceNames.length];
+		for (int i = 0; i < interfaceNames.length; i++) {
+			interfaces[i] = classRef(interfaceNames[i]);
+		}
+	}
+
+	int utf8(String value) {
+		Integer index = entries.get("U" + value);
+		if (index != null) {
+			return index;
+		}
+
+		try {
+			poolOut.writeByte(1);
+			poolOut.writeUTF(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return register("U" + value, 1);
+	}
+
+	int classRef(String internalName) {
+		return reference("C" + internalName, 7, utf8(internalName), -1);
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return memberRef(9, owner, name, descriptor);
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return memberRef(10, owner, name, descriptor);
+	}
+
+	int interfaceMethodRef(String owner, String name, String descriptor) {
+		return memberRef(11, owner, name, descriptor);
+	}
+
+	int doubleConstant(double value) {
+		String key = "D" + Double.doubleToRawLongBits(value);
+		Integer index = entries.get(key);
+		if (index != null) {
+			return index;
+		}
+
+		try {
+			poolOut.writeByte(6);
+			poolOut.writeDouble(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return register(key, 2);
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		int nameAndType = reference("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+		return reference(tag + owner + "." + name + ":" + descriptor, tag, classRef(owner), nameAndType);
+	}
+
+	private int reference(String key, int tag, int first, int second) {
+		Integer index = entries.get(key);
+		if (index != null) {
+			return index;
+		}
+
+		try {
+			poolOut.writeByte(tag);
+			poolOut.writeShort(first);
+			if (second != -1) {
+				poolOut.writeShort(second);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return register(key, 1);
+	}
+
+	private int register(String key, int size) {
+		int index = poolCount;
+		entries.put(key, index);
+		poolCount += size;
+		return index;
+	}
+
+	Code method(int access, String name, String descriptor) {
+		return new Code(access, name, descriptor);
+	}
+
+	byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+			out.writeShort(ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for (int index : interfaces) {
+				out.writeShort(index);
+			}
+			out.writeShort(0);
+			out.writeShort(methods.size());
+			for (byte[] method : methods) {
+				out.write(method);
+			}
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	static class Label {
+		private int position = -1;
+		private final List<Integer> fixups = new ArrayList<>();
+	}
+
+	class Code {
+		private final int access;
+		private final int name;
+		private final int descriptor;
+		private final int codeAttribute;
+		private byte[] code = new byte[64];
+		private int length;
+		private int stack;
+		private int maxStack;
+
+		private Code(int access, String name, String descriptor) {
+			this.access = access;
+			this.name = utf8(name);
+			this.descriptor = utf8(descriptor);
+			this.codeAttribute = utf8("Code");
+		}
+
+		int length() {
+			return length;
+		}
+
+		void op(int opcode, int stackEffect) {
+			u1(opcode);
+			adjust(stackEffect);
+		}
+
+		void op(int opcode, int operand, int stackEffect) {
+			u1(opcode);
+			u1(operand);
+			adjust(stackEffect);
+		}
+
+		void opWithIndex(int opcode, int index, int stackEffect) {
+			u1(opcode);
+			u2(index);
+			adjust(stackEffect);
+		}
+
+		void invokeInterface(int index, int argumentWords, int stackEffect) {
+			u1(INVOKEINTERFACE);
+			u2(index);
+			u1(argumentWords + 1);
+			u1(0);
+			adjust(stackEffect);
+		}
+
+		void jump(int opcode, Label target, int stackEffect) {
+			int address = length;
+			u1(opcode);
+			if (target.position >= 0) {
+				u2(target.position - address);
+			} else {
+				target.fixups.add(address);
+				u2(0);
+			}
+			adjust(stackEffect);
+		}
+
+		void mark(Label label) {
+			label.position = length;
+			for (int address : label.fixups) {
+				int offset = label.position - address;
+				code[address + 1] = (byte) (offset >> 8);
+				code[address + 2] = (byte) offset;
+			}
+			label.fixups.clear();
+		}
+
+		// stack depth is tracked linearly; callers reset it where control flow merges
+		void stackDepth(int depth) {
+			stack = depth;
+		}
+
+		private void adjust(int stackEffect) {
+			stack += stackEffect;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void u1(int value) {
+			if (length == code.length) {
+				code = Arrays.copyOf(code, length * 2);
+			}
+			code[length++] = (byte) value;
+		}
+
+		private void u2(int value) {
+			u1(value >> 8);
+			u1(value);
+		}
+
+		void end(int maxLocals) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			try {
+				out.writeShort(access);
+				out.writeShort(name);
+				out.writeShort(descriptor);
+				out.writeShort(1);
+				out.writeShort(codeAttribute);
+				out.writeInt(12 + length);
+				out.writeShort(maxStack);
+				out.writeShort(maxLocals);
+				out.writeInt(length);
+				out.write(code, 0, length);
+				out.writeShort(0);
+				out.writeShort(0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			methods.add(bytes.toByteArray());
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.hjonas.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+// a parsed, resolved and optimized program. nothing in it refers to a context and it
+// is not changed after it is compiled, so one instance can be run any number of times,
+// by any number of contexts at once
+public final class CompiledScript {
+	final String name;
+	final List<Stmt> statements;
+	// the vm's bytecode, compiled by the first vm that runs the script. a chunk only
+	// caches global cells behind an owner check, so every context shares it
+	volatile Chunk chunk;
+
+	CompiledScript(String name, List<Stmt> statements) {
+		this.name = name;
+		this.statements = Collections.unmodifiableList(statements);
+	}
+
+	public String name() {
+		return name;
+	}
+}
@@ -0,0 +1,493 @@
+package com.hjonas.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hjonas.lox.Expr.ArrayLiteral;
+import com.hjonas.lox.Expr.Assign;
+import com.hjonas.lox.Expr.Binary;
+import com.hjonas.lox.Expr.Call;
+import com.hjonas.lox.Expr.Grouping;
+import com.hjonas.lox.Expr.Index;
+import com.hjonas.lox.Expr.Literal;
+import com.hjonas.lox.Expr.SetIndex;
+import com.hjonas.lox.Expr.Unary;
+import com.hjonas.lox.Expr.VariableExpr;
+import com.hjonas.lox.Stmt.Block;
+import com.hjonas.lox.Stmt.BreakStmt;
+import com.hjonas.lox.Stmt.ContinueStmt;
+import com.hjonas.lox.Stmt.Expression;
+import com.hjonas.lox.Stmt.Function;
+import com.hjonas.lox.Stmt.IfStmt;
+import com.hjonas.lox.Stmt.Print;
+import com.hjonas.lox.Stmt.ReturnStmt;
+import com.hjonas.lox.Stmt.VariableStmt;
+import com.hjonas.lox.Stmt.WhileStmt;
+
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	private final ErrorReporter reporter;
+	private Chunk chunk;
+	private Loop loop;
+	private int scopeDepth;
+	private int stackDepth;
+	private int line = 1;
+	private boolean hadError;
+
+	private static class Loop {
+		final Loop enclosing;
+		final int scopeDepth;
+		final List<Integer> breaks = new ArrayList<>();
+		final List<Integer> continues = new ArrayList<>();
+
+		Loop(Loop enclosing, int scopeDepth) {
+			this.enclosing = enclosing;
+			this.scopeDepth = scopeDepth;
+		}
+	}
+
+	Compiler(ErrorReporter reporter) {
+		this.reporter = reporter;
+	}
+
+	Chunk compile(List<Stmt> statements) {
+		chunk = new Chunk("script", 0, 0);
+
+		for (Stmt statement : statements) {
+			compile(statement);
+		}
+
+		emit(OpCode.NIL, 1);
+		emit(OpCode.RETURN, -1);
+		chunk.finish();
+		return hadError ? null : chunk;
+	}
+
+	private void compile(Stmt statement) {
+		statement.accept(this);
+	}
+
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+
+	private void emit(byte op, int stackEffect) {
+		chunk.write(op, line);
+		stackDepth += stackEffect;
+		if (stackDepth > chunk.maxStack) {
+			chunk.maxStack = stackDepth;
+		}
+	}
+
+	private void emitShort(int value) {
+		if (value > 0xffff) {
+			error("Too many constants or slots in one function.");
+		}
+		chunk.write((value >> 8) & 0xff, line);
+		chunk.write(value & 0xff, line);
+	}
+
+	private int emitJump(byte op) {
+		emit(op, 0);
+		emitShort(0);
+		return chunk.count - 2;
+	}
+
+	private void error(String message) {
+		reporter.error(line, message);
+		hadError = true;
+	}
+
+	private void patchJump(int offset) {
+		int jump = chunk.count - offset - 2;
+
+		if (jump > 0xffff) {
+			error("Too much code to jump over.");
+		}
+
+		chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+		chunk.code[offset + 1] = (byte) (jump & 0xff);
+	}
+
+	private void emitLoop(int loopStart) {
+		emit(OpCode.LOOP, 0);
+		emitShort(chunk.count - loopStart + 2);
+	}
+
+	private void emitConstant(Object value) {
+		emit(OpCode.CONSTANT, 1);
+		emitShort(chunk.addConstant(value));
+	}
+
+	private void emitDefine(Token name, int slot) {
+		if (slot == -1) {
+			emit(OpCode.DEFINE_GLOBAL, -1);
+			emitShort(chunk.addConstant(name));
+		} else {
+			emit(OpCode.DEFINE_LOCAL, -1);
+			emitShort(slot);
+		}
+	}
+
+	@Override
+	public Void visitUnary(Unary unary) {
+		compile(unary.right);
+		line = unary.operator.line;
+
+		switch (unary.operator.type) {
+			case MINUS: {
+				emit(OpCode.NEGATE, 0);
+				break;
+			}
+			case BANG: {
+				emit(OpCode.NOT, 0);
+				break;
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitBinary(Binary binary) {
+		switch (binary.operator.type) {
+			case OR: {
+				compile(binary.left);
+				line = binary.operator.line;
+				int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+				int endJump = emitJump(OpCode.JUMP);
+				patchJump(elseJump);
+				emit(OpCode.POP, -1);
+				compile(binary.right);
+				patchJump(endJump);
+				return null;
+			}
+			case AND: {
+				compile(binary.left);
+				line = binary.operator.line;
+				int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+				emit(OpCode.POP, -1);
+				compile(binary.right);
+				patchJump(endJump);
+				return null;
+			}
+		}
+
+		compile(binary.left);
+		compile(binary.right);
+		line = binary.operator.line;
+
+		switch (binary.operator.type) {
+			case MINUS: {
+				emit(OpCode.SUBTRACT, -1);
+				break;
+			}
+			case STAR: {
+				emit(OpCode.MULTIPLY, -1);
+				break;
+			}
+			case SLASH: {
+				emit(OpCode.DIVIDE, -1);
+				break;
+			}
+			case PLUS: {
+				emit(OpCode.ADD, -1);
+				break;
+			}
+			case GREATER: {
+				emit(OpCode.GREATER, -1);
+				break;
+			}
+			case GREATER_EQUAL: {
+				emit(OpCode.GREATER_EQUAL, -1);
+				break;
+			}
+			case LESS: {
+				emit(OpCode.LESS, -1);
+				break;
+			}
+			case LESS_EQUAL: {
+				emit(OpCode.LESS_EQUAL, -1);
+				break;
+			}
+			case EQUAL_EQUAL: {
+				emit(OpCode.EQUAL, -1);
+				break;
+			}
+			case BANG_EQUAL: {
+				emit(OpCode.NOT_EQUAL, -1);
+				break;
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitGroupping(Grouping grouping) {
+		compile(grouping.expr);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteral(Literal literal) {
+		if (literal.value == null) {
+			emit(OpCode.NIL, 1);
+		} else if (literal.value.equals(true)) {
+			emit(OpCode.TRUE, 1);
+		} else if (literal.value.equals(false)) {
+			emit(OpCode.FALSE, 1);
+		} else {
+			emitConstant(literal.value);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(VariableExpr variable) {
+		line = variable.name.line;
+
+		if (variable.depth == -1) {
+			emit(OpCode.GET_GLOBAL, 1);
+			emitShort(chunk.addConstant(variable.name));
+		} else {
+			emit(OpCode.GET_LOCAL, 1);
+			emitShort(variable.depth);
+			emitShort(variable.slot);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitAssign(Assign assign) {
+		compile(assign.value);
+		line = assign.name.line;
+
+		if (assign.depth == -1) {
+			emit(OpCode.SET_GLOBAL, 0);
+			emitShort(chunk.addConstant(assign.name));
+		} else {
+			emit(OpCode.SET_LOCAL, 0);
+			emitShort(assign.depth);
+			emitShort(assign.slot);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitCall(Call call) {
+		call(call, OpCode.CALL);
+		return null;
+	}
+
+	private void call(Call call, byte op) {
+		compile(call.callee);
+		for (Expr arg : call.arguments) {
+			compile(arg);
+		}
+
+		line = call.paren.line;
+		emit(op, -call.arguments.size());
+		chunk.write(call.arguments.size(), line);
+	}
+
+	@Override
+	public Void visitArrayLiteral(ArrayLiteral array) {
+		for (Expr element : array.elements) {
+			compile(element);
+		}
+
+		line = array.bracket.line;
+		emit(OpCode.ARRAY, 1 - array.elements.size());
+		emitShort(array.elements.size());
+		return null;
+	}
+
+	@Override
+	public Void visitIndex(Index index) {
+		compile(index.array);
+		compile(index.index);
+		line = index.bracket.line;
+		emit(OpCode.GET_INDEX, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitSetIndex(SetIndex setIndex) {
+		compile(setIndex.array);
+		compile(setIndex.index);
+		compile(setIndex.value);
+		line = setIndex.bracket.line;
+		emit(OpCode.SET_INDEX, -2);
+		return null;
+	}
+
+	@Override
+	public Void visitExpression(Expression expr) {
+		compile(expr.expr);
+		emit(OpCode.POP, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitPrint(Print print) {
+		compile(print.expr);
+		emit(OpCode.PRINT, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableStmt(VariableStmt var) {
+		if (var.initializer != null) {
+			compile(var.initializer);
+		} else {
+			emit(OpCode.NIL, 1);
+		}
+
+		line = var.name.line;
+		emitDefine(var.name, var.slot);
+		return null;
+	}
+
+	@Override
+	public Void visitBlock(Block block) {
+		if (block.flattened) {
+			for (Stmt statement : block.statements) {
+				compile(statement);
+			}
+			return null;
+		}
+
+		emit(OpCode.PUSH_SCOPE, 0);
+		emitShort(block.frameSize);
+		scopeDepth++;
+
+		for (Stmt statement : block.statements) {
+			compile(statement);
+		}
+
+		scopeDepth--;
+		emit(OpCode.POP_SCOPE, 0);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(IfStmt ifStmt) {
+		compile(ifStmt.condition);
+		int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+		emit(OpCode.POP, -1);
+		compile(ifStmt.thenBranch);
+		int elseJump = emitJump(OpCode.JUMP);
+
+		// the condition is still on the stack when the else branch is entered
+		patchJump(thenJump);
+		stackDepth++;
+		emit(OpCode.POP, -1);
+
+		if (ifStmt.elseBranch != null) {
+			compile(ifStmt.elseBranch);
+		}
+
+		patchJump(elseJump);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(WhileStmt whileStmt) {
+		int loopStart = chunk.count;
+		compile(whileStmt.condition);
+		int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+		emit(OpCode.POP, -1);
+
+		loop = new Loop(loop, scopeDepth);
+		compile(whileStmt.body);
+
+		for (int continueJump : loop.continues) {
+			patchJump(continueJump);
+		}
+		if (whileStmt.increment != null) {
+			compile(whileStmt.increment);
+			emit(OpCode.POP, -1);
+		}
+		emitLoop(loopStart);
+
+		patchJump(exitJump);
+		stackDepth++;
+		emit(OpCode.POP, -1);
+
+		for (int breakJump : loop.breaks) {
+			patchJump(breakJump);
+		}
+		loop = loop.enclosing;
+		return null;
+	}
+
+	@Override
+	public Void visitBreakStmt(BreakStmt breakStmt) {
+		line = breakStmt.token.line;
+		exitScopes();
+		loop.breaks.add(emitJump(OpCode.JUMP));
+		return null;
+	}
+
+	@Override
+	public Void visitContinueStmt(ContinueStmt continueStmt) {
+		line = continueStmt.token.line;
+		exitScopes();
+		loop.continues.add(emitJump(OpCode.JUMP));
+		return null;
+	}
+
+	private void exitScopes() {
+		for (int i = loop.scopeDepth; i < scopeDepth; i++) {
+			emit(OpCode.POP_SCOPE, 0);
+		}
+	}
+
+	@Override
+	public Void visitFunctionStmt(Function function) {
+		Chunk enclosingChunk = chunk;
+		Loop enclosingLoop = loop;
+		int enclosingScopeDepth = scopeDepth;
+		int enclosingStackDepth = stackDepth;
+
+		chunk = new Chunk(function.name.lexeme, function.params.size(), function.frameSize);
+		loop = null;
+		scopeDepth = 0;
+		stackDepth = 0;
+
+		for (Stmt statement : ((Block) function.body).statements) {
+			compile(statement);
+		}
+		emit(OpCode.NIL, 1);
+		emit(OpCode.RETURN, -1);
+		chunk.finish();
+
+		Chunk compiled = chunk;
+		chunk = enclosingChunk;
+		loop = enclosingLoop;
+		scopeDepth = enclosingScopeDepth;
+		stackDepth = enclosingStackDepth;
+
+		line = function.name.line;
+		emit(OpCode.CLOSURE, 1);
+		emitShort(chunk.addConstant(compiled));
+		emitDefine(function.name, function.slot);
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(ReturnStmt returnStmt) {
+		if (returnStmt.tailCall) {
+			// the return after it is only reached when the callee isn't a lox function
+			call((Call) returnStmt.value, OpCode.TAIL_CALL);
+		} else if (returnStmt.value != null) {
+			compile(returnStmt.value);
+		} else {
+			emit(OpCode.NIL, 1);
+		}
+
+		line = returnStmt.token.line;
+		emit(OpCode.RETURN, -1);
+		return null;
+	}
+}
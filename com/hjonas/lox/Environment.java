@@ -1,53 +1,65 @@
 package com.hjonas.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Environment {
-	final Map<String, Object> env;
-	private final Environment enclosing;
+	// the cells of the globals by name. spawned threads share the globals, so the
+	// map is concurrent; use sites keep the cell they looked up, so it is mostly
+	// read once per site. the slots of a local frame never move, so closures can
+	// share frames as they are
+	private final ConcurrentHashMap<Symbol, GlobalCell> cells;
+	final Object[] values;
+	final Environment enclosing;
 
 	Environment() {
-		this.env = new HashMap<String, Object>();
+		this.cells = new ConcurrentHashMap<>();
+		this.values = null;
 		enclosing = null;
 	}
 
-	Environment(Environment enclosing) {
-		this.env = new HashMap<>();
+	Environment(Environment enclosing, int size) {
+		this.cells = null;
+		this.values = new Object[size];
 		this.enclosing = enclosing;
 	}
 
+	GlobalCell cell(Symbol name) {
+		GlobalCell cell = cells.get(name);
+
+		if (cell == null) {
+			cell = cells.computeIfAbsent(name, symbol -> new GlobalCell(this, symbol));
+		}
+		return cell;
+	}
+
 	void define(String name, Object value) {
-		env.put(name, value);
+		define(Symbol.intern(name), value);
 	}
 
-	Object assign(Token name, Object value) {
-		if (env.containsKey(name.lexeme)) {
-			env.put(name.lexeme, value);
-			return value;
-		}
+	void define(Symbol name, Object value) {
+		cell(name).value = value;
+	}
 
-		if (enclosing != null) {
-			return enclosing.assign(name, value);
-		}
+	void define(int slot, Object value) {
+		values[slot] = value;
+	}
 
-		throw new RuntimeError(name, "undefined variable");
+	Object assign(Token name, Object value) {
+		return cell(name.symbol).assign(name, value);
 	}
 
 	Object get(Token name) {
-		if (env.containsKey(name.lexeme)) {
-			return env.get(name.lexeme);
-		}
-
-		if (enclosing != null) {
-			return enclosing.get(name);
-		}
+		return cell(name.symbol).get(name);
+	}
 
-		throw new RuntimeError(name, "undefined variable");
+	// the value of a global, or null when it isn't defined
+	Object find(Symbol name) {
+		Object value = cell(name).value;
+		return value != GlobalCell.UNDEFINED ? value : null;
 	}
 
-	public Object getAt(Integer distance, String name) {
-		return ancestor(distance).env.get(name);
+	public Object getAt(int distance, int slot) {
+		return ancestor(distance).values[slot];
 	}
 
 	public Environment ancestor(int distance) {
@@ -60,7 +72,7 @@ class Environment {
 		return environment;
 	}
 
-    public void assignAt(Integer distance, Token name, Object value) {
-		ancestor(distance).env.put(name.lexeme, value);
-    }
+	public void assignAt(int distance, int slot, Object value) {
+		ancestor(distance).values[slot] = value;
+	}
 }
@@ -0,0 +1,56 @@
+package com.hjonas.lox;
+
+import static com.hjonas.lox.TokenType.EOF;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// collects the errors of one context and writes them to its sinks
+class ErrorReporter {
+	private final PrintStream out;
+	private final PrintStream err;
+	boolean hadError = false;
+	// spawned threads report here too
+	volatile boolean hadRuntimeError = false;
+	// never reset, so a run can tell the errors it reported from earlier ones
+	private final AtomicInteger runtimeErrors = new AtomicInteger();
+
+	ErrorReporter(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	void error(Token token, String message) {
+		if (token.type.equals(EOF)) {
+			report(token.line, " at end", message);
+		} else {
+			report(token.line, " at '" + token.lexeme + "'", message);
+		}
+	}
+
+	void error(int line, String message) {
+		report(line, "", message);
+	}
+
+	private void report(int line, String where, String message) {
+		err.println("[line " + line + "] Error" + where + ": " + message);
+		hadError = true;
+	}
+
+	void runtimeError(RuntimeError e) {
+		out.println(e.getMessage() + "\n[line " + e.token.line + "]");
+		hadRuntimeError = true;
+		runtimeErrors.incrementAndGet();
+
+		if (LoxEvents.RuntimeError.TYPE.isEnabled()) {
+			LoxEvents.RuntimeError event = new LoxEvents.RuntimeError();
+			event.message = e.getMessage();
+			event.line = e.token.line;
+			event.commit();
+		}
+	}
+
+	int runtimeErrors() {
+		return runtimeErrors.get();
+	}
+}
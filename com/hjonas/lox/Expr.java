@@ -18,6 +18,12 @@ public abstract class Expr {
 		R visitAssign(Assign assign);
 
 		R visitCall(Call call);
+
+		R visitArrayLiteral(ArrayLiteral array);
+
+		R visitIndex(Index index);
+
+		R visitSetIndex(SetIndex setIndex);
 	}
 
 	abstract <R> R accept(Visitor<R> visitor);
@@ -41,6 +47,7 @@ public abstract class Expr {
 		final Token operator;
 		final Expr left;
 		final Expr right;
+		boolean numeric;
 
 		Binary(Token operator, Expr left, Expr right) {
 			this.operator = operator;
@@ -82,6 +89,9 @@ public abstract class Expr {
 
 	static class VariableExpr extends Expr {
 		final Token name;
+		int depth = -1;
+		int slot;
+		GlobalCell cell;
 
 		VariableExpr(Token name) {
 			this.name = name;
@@ -96,6 +106,9 @@ public abstract class Expr {
 	static class Assign extends Expr {
 		final Token name;
 		final Expr value;
+		int depth = -1;
+		int slot;
+		GlobalCell cell;
 
 		Assign(Token name, Expr value) {
 			this.name = name;
@@ -112,6 +125,8 @@ public abstract class Expr {
 		final Token paren;
 		final Expr callee;
 		final List<Expr> arguments;
+		// the last function called here whose arity matched
+		Stmt.Function target;
 
 		Call(Expr callee, Token paren, List<Expr> arguments) {
 			this.arguments = arguments;
@@ -124,4 +139,55 @@ public abstract class Expr {
 			return visitor.visitCall(this);
 		}
 	}
+
+	static class ArrayLiteral extends Expr {
+		final Token bracket;
+		final List<Expr> elements;
+
+		ArrayLiteral(Token bracket, List<Expr> elements) {
+			this.bracket = bracket;
+			this.elements = elements;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitArrayLiteral(this);
+		}
+	}
+
+	static class Index extends Expr {
+		final Expr array;
+		final Token bracket;
+		final Expr index;
+
+		Index(Expr array, Token bracket, Expr index) {
+			this.array = array;
+			this.bracket = bracket;
+			this.index = index;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitIndex(this);
+		}
+	}
+
+	static class SetIndex extends Expr {
+		final Expr array;
+		final Token bracket;
+		final Expr index;
+		final Expr value;
+
+		SetIndex(Expr array, Token bracket, Expr index, Expr value) {
+			this.array = array;
+			this.bracket = bracket;
+			this.index = index;
+			this.value = value;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitSetIndex(this);
+		}
+	}
 }
@@ -0,0 +1,35 @@
+package com.hjonas.lox;
+
+// the storage of one global variable. a table keeps the same cell for a name for
+// as long as it lives, so a use site can hold on to the cell instead of looking
+// the name up on every access, and redefining the name just updates the value
+class GlobalCell {
+	static final Object UNDEFINED = new Object();
+
+	final Environment owner;
+	final Symbol name;
+	Object value = UNDEFINED;
+
+	GlobalCell(Environment owner, Symbol name) {
+		this.owner = owner;
+		this.name = name;
+	}
+
+	Object get(Token token) {
+		Object result = value;
+
+		if (result == UNDEFINED) {
+			throw new RuntimeError(token, "undefined variable");
+		}
+		return result;
+	}
+
+	Object assign(Token token, Object newValue) {
+		if (value == UNDEFINED) {
+			throw new RuntimeError(token, "undefined variable");
+		}
+
+		value = newValue;
+		return newValue;
+	}
+}
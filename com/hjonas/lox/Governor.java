@@ -0,0 +1,156 @@
+package com.hjonas.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// decides when a running script has to stop or give up its thread. every loop
+// iteration and call is a tick; the engines only count ticks down, and the budget,
+// the deadline, cancellation and yielding are all checked once per slice of ticks.
+// a thread spawned by a run counts its ticks in a governor of its own that is
+// linked to the run's: it draws on the same fuel and deadline, and when one thread
+// of the run is stopped all of them are
+final class Governor {
+	private static final int SLICE = 1 << 14;
+
+	// limits for each run, <= 0 when unlimited. only read on the run's governor
+	long fuel;
+	long timeoutNanos;
+	int yieldEvery;
+
+	// the governor of the context for spawned threads, otherwise this one
+	private final Governor run;
+	private volatile boolean cancelled;
+	// why the run is stopping, null while it may go on. set once and seen by all threads
+	private volatile ScriptInterruptedException.Reason stopped;
+	private final AtomicLong fuelLeft = new AtomicLong();
+	private volatile long deadline;
+	// spawned threads of the current run that haven't finished, guarded by this
+	private int spawned;
+
+	// the nodes engine ticks the run's governor from spawned threads too, which only
+	// makes these counts approximate
+	private int ticks = SLICE;
+	private int slice = SLICE;
+
+	Governor() {
+		run = this;
+	}
+
+	private Governor(Governor run) {
+		this.run = run;
+		slice = nextSlice();
+		ticks = slice;
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	void begin() {
+		stopped = null;
+		fuelLeft.set(fuel);
+		deadline = System.nanoTime() + timeoutNanos;
+		slice = nextSlice();
+		ticks = slice;
+	}
+
+	// a governor for a thread the current run spawns; call finished() when it is done
+	Governor spawn() {
+		synchronized (run) {
+			run.spawned++;
+		}
+		return new Governor(run);
+	}
+
+	void finished() {
+		synchronized (run) {
+			if (--run.spawned == 0) {
+				run.notifyAll();
+			}
+		}
+	}
+
+	// stops the threads the run spawned and waits for them, so none of them outlive it
+	void end() {
+		if (stopped == null) {
+			stopped = ScriptInterruptedException.Reason.CANCELLED;
+		}
+
+		boolean interrupted = false;
+		synchronized (this) {
+			while (spawned > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	void tick() {
+		if (--ticks <= 0) {
+			checkpoint();
+		}
+	}
+
+	private int nextSlice() {
+		int size = run.yieldEvery > 0 ? run.yieldEvery : SLICE;
+
+		if (run.fuel > 0) {
+			size = (int) Math.max(Math.min(size, run.fuelLeft.get()), 1);
+		}
+		return size;
+	}
+
+	// called while a script is blocked outside the engines, e.g. on a channel, so
+	// cancel() and the deadline still reach it
+	void waiting() {
+		checkStopped();
+		checkDeadline();
+	}
+
+	private void checkpoint() {
+		checkStopped();
+
+		if (run.fuel > 0 && run.fuelLeft.addAndGet(-slice) <= 0) {
+			throw stop(ScriptInterruptedException.Reason.OUT_OF_FUEL);
+		}
+		checkDeadline();
+
+		// on a virtual thread this hands the carrier to the next script in line
+		if (run.yieldEvery > 0) {
+			Thread.yield();
+		}
+
+		slice = nextSlice();
+		ticks = slice;
+	}
+
+	private void checkStopped() {
+		if (run.cancelled) {
+			run.cancelled = false;
+			throw stop(ScriptInterruptedException.Reason.CANCELLED);
+		}
+
+		ScriptInterruptedException.Reason reason = run.stopped;
+		if (reason != null) {
+			throw new ScriptInterruptedException(reason);
+		}
+	}
+
+	private void checkDeadline() {
+		if (run.timeoutNanos > 0 && System.nanoTime() - run.deadline >= 0) {
+			throw stop(ScriptInterruptedException.Reason.DEADLINE);
+		}
+	}
+
+	private ScriptInterruptedException stop(ScriptInterruptedException.Reason reason) {
+		if (run.stopped == null) {
+			run.stopped = reason;
+		}
+		return new ScriptInterruptedException(reason);
+	}
+}
@@ -1,19 +1,24 @@
 package com.hjonas.lox;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
+import com.hjonas.lox.Expr.ArrayLiteral;
 import com.hjonas.lox.Expr.Assign;
 import com.hjonas.lox.Expr.Binary;
 import com.hjonas.lox.Expr.Call;
 import com.hjonas.lox.Expr.Grouping;
+import com.hjonas.lox.Expr.Index;
 import com.hjonas.lox.Expr.Literal;
+import com.hjonas.lox.Expr.SetIndex;
 import com.hjonas.lox.Expr.Unary;
 import com.hjonas.lox.Expr.VariableExpr;
 import com.hjonas.lox.Stmt.Block;
 import com.hjonas.lox.Stmt.BreakStmt;
+import com.hjonas.lox.Stmt.ContinueStmt;
 import com.hjonas.lox.Stmt.Expression;
 import com.hjonas.lox.Stmt.Function;
 import com.hjonas.lox.Stmt.IfStmt;
@@ -23,11 +28,44 @@ import com.hjonas.lox.Stmt.VariableStmt;
 import com.hjonas.lox.Stmt.WhileStmt;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-	final Environment globals = new Environment();
-	private Environment env = globals;
-	private final Map<Expr, Integer> locals = new HashMap<>();
+	final Environment globals;
+	final ErrorReporter reporter;
+	final Governor governor;
+	final PrintStream out;
+	private Environment env;
+	boolean jit = false;
+	// only set while a profiler samples this interpreter
+	Profiler.ShadowStack shadowStack;
+	// counted here and handed to LoxMetrics after each run
+	long statements;
+	long calls;
+	long environments;
+
+	// break, continue and return set the completion and unwind normally until the
+	// enclosing loop or function call consumes it
+	private enum Completion {
+		NORMAL,
+		BREAK,
+		CONTINUE,
+		RETURN,
+		TAIL_CALL
+	}
 
-	Interpreter() {
+	private Completion completion = Completion.NORMAL;
+	private Object returnValue;
+	// the callee of a pending tail call; its arguments are on top of the stack
+	private LoxFunction tailCallee;
+	private Object[] stack = new Object[64];
+	private int sp;
+	// the call the running native was called from
+	private Token callSite;
+
+	Interpreter(ErrorReporter reporter, PrintStream out) {
+		this.globals = new Environment();
+		this.env = globals;
+		this.governor = new Governor();
+		this.reporter = reporter;
+		this.out = out;
 		this.globals.define("clock", new LoxCallable() {
 
 			@Override
@@ -45,9 +83,329 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				return "<native fn>";
 			}
 		});
+		this.globals.define("spawn", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 1;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				Object function = arguments.get(0);
+
+				if (!(function instanceof LoxCallable) || ((LoxCallable) function).arity() != 0) {
+					throw new RuntimeError(null, "can only spawn functions without parameters.");
+				}
+				return interpreter.spawn((LoxCallable) function, interpreter.callSite);
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("channel", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 1;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				Object capacity = arguments.get(0);
+
+				if (!(capacity instanceof Double) || (double) capacity < 0
+						|| (double) capacity > Integer.MAX_VALUE || (double) capacity % 1 != 0) {
+					throw new RuntimeError(null, "channel capacity must be a whole number >= 0.");
+				}
+				return new LoxChannel((int) (double) capacity);
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("send", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 2;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				channel(arguments.get(0)).send(arguments.get(1), interpreter.governor);
+				return null;
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("receive", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 1;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				return channel(arguments.get(0)).receive(interpreter.governor);
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("length", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 1;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				Object value = arguments.get(0);
+
+				if (value instanceof LoxMap) {
+					return (double) ((LoxMap) value).size();
+				}
+				return (double) array(value).size();
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("push", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 2;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				array(arguments.get(0)).push(arguments.get(1));
+				return null;
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("pop", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 1;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				LoxArray array = array(arguments.get(0));
+
+				synchronized (array) {
+					if (array.size() == 0) {
+						throw new RuntimeError(null, "can't pop from an empty array.");
+					}
+					return array.pop();
+				}
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("map", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 0;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				return new LoxMap();
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("get", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 2;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				return map(arguments.get(0)).get(arguments.get(1));
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("put", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 3;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				Object key = arguments.get(1);
+
+				if (key == null) {
+					throw new RuntimeError(null, "map keys can't be nil.");
+				}
+				map(arguments.get(0)).put(key, arguments.get(2));
+				return null;
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("has", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 2;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				return map(arguments.get(0)).has(arguments.get(1));
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("remove", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 2;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				return map(arguments.get(0)).remove(arguments.get(1));
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+		this.globals.define("keys", new LoxCallable() {
+
+			@Override
+			public int arity() {
+				return 1;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				return map(arguments.get(0)).keys();
+			}
+
+			@Override
+			public String toString() {
+				return "<native fn>";
+			}
+		});
+	}
+
+	// an interpreter for a spawned function. it shares the globals and sinks of its
+	// parent but has its own stacks, so both can run at the same time. its governor
+	// is linked to the parent's, so the limits of the run cover it
+	private Interpreter(Interpreter parent) {
+		this.globals = parent.globals;
+		this.env = globals;
+		this.governor = parent.governor.spawn();
+		this.reporter = parent.reporter;
+		this.out = parent.out;
+		this.jit = parent.jit;
+	}
+
+	// runs the function on a thread of its own. the returned channel receives its
+	// result, or nil when it fails. the thread is stopped when the run ends
+	private LoxChannel spawn(LoxCallable function, Token site) {
+		Interpreter child = new Interpreter(this);
+		LoxChannel result = new LoxChannel(1);
+
+		try {
+			Threads.start(() -> {
+				Object value = null;
+
+				try {
+					value = function.call(child, new ArrayList<>());
+				} catch (RuntimeError e) {
+					reporter.runtimeError(e.token != null ? e : new RuntimeError(site, e.getMessage()));
+				} catch (ScriptInterruptedException e) {
+					// the run was stopped or is over
+				} catch (StackOverflowError e) {
+					reporter.runtimeError(new RuntimeError(site, "Stack overflow."));
+				} catch (RuntimeException e) {
+					// a bug in the interpreter still has to fail the run like any lox error,
+					// not just end the thread
+					reporter.runtimeError(new RuntimeError(site, "spawned function failed: " + e));
+				} finally {
+					LoxMetrics.INSTANCE.counted(child);
+					result.offer(value);
+					child.governor.finished();
+				}
+			});
+		} catch (RuntimeException e) {
+			child.governor.finished();
+			throw e;
+		}
+		return result;
+	}
+
+	private static LoxChannel channel(Object value) {
+		if (!(value instanceof LoxChannel)) {
+			throw new RuntimeError(null, "operand must be a channel.");
+		}
+		return (LoxChannel) value;
+	}
+
+	private static LoxArray array(Object value) {
+		if (!(value instanceof LoxArray)) {
+			throw new RuntimeError(null, "operand must be an array.");
+		}
+		return (LoxArray) value;
+	}
+
+	private static LoxMap map(Object value) {
+		if (!(value instanceof LoxMap)) {
+			throw new RuntimeError(null, "operand must be a map.");
+		}
+		return (LoxMap) value;
 	}
 
-	private boolean isTruthy(Object value) {
+	static boolean isTruthy(Object value) {
 		if (value == null) {
 			return false;
 		}
@@ -57,7 +415,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return true;
 	}
 
-	private String stringify(Object value) {
+	static String stringify(Object value) {
 		if (value == null) {
 			return "nil";
 		}
@@ -72,7 +430,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return value.toString();
 	}
 
-	private boolean isEqual(Object left, Object right) {
+	// for values inside an array or map; open holds the ones being printed further up
+	static void stringify(StringBuilder text, Object value, Set<Object> open) {
+		if (value instanceof LoxArray) {
+			((LoxArray) value).append(text, open);
+		} else if (value instanceof LoxMap) {
+			((LoxMap) value).append(text, open);
+		} else {
+			text.append(stringify(value));
+		}
+	}
+
+	static boolean isEqual(Object left, Object right) {
 		if (left == null && right == null) {
 			return false;
 		}
@@ -89,24 +458,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		throw new RuntimeError(operator, "operand must be a number.");
 	}
 
-	private void checkNumberOperands(Token operator, Object left, Object right) {
-		if (left instanceof Double && right instanceof Double) {
-			return;
-		}
-		throw new RuntimeError(operator, "operands must be a number.");
-	}
-
 	void interpret(List<Stmt> statements) {
+		sp = 0;
+		completion = Completion.NORMAL;
+		tailCallee = null;
+
 		try {
 			for (Stmt statement : statements) {
 				execute(statement);
 			}
 		} catch (RuntimeError e) {
-			Lox.runtimeError(e);
+			reporter.runtimeError(e);
 		}
 	}
 
 	private void execute(Stmt statement) {
+		statements++;
 		statement.accept(this);
 	}
 
@@ -114,16 +481,106 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return expr.accept(this);
 	}
 
+	// thrown by evaluateDouble for an operand that isn't a number. the operator
+	// catches it and fails itself, once all its operands have been evaluated
+	private static class NotANumber extends RuntimeException {
+		static final NotANumber INSTANCE = new NotANumber();
+
+		private NotANumber() {
+			super(null, null, false, false);
+		}
+	}
+
+	// evaluates an operand of an arithmetic operator as a primitive, so intermediate
+	// results of nested arithmetic are never boxed
+	private double evaluateDouble(Expr expr) {
+		if (expr instanceof Binary) {
+			Binary binary = (Binary) expr;
+
+			switch (binary.operator.type) {
+				case MINUS: {
+					return left(binary) - right(binary);
+				}
+				case STAR: {
+					return left(binary) * right(binary);
+				}
+				case SLASH: {
+					return divide(binary);
+				}
+				case PLUS: {
+					if (binary.numeric) {
+						return left(binary) + right(binary);
+					}
+					break;
+				}
+			}
+		} else if (expr instanceof Unary) {
+			Unary unary = (Unary) expr;
+
+			if (unary.operator.type == TokenType.MINUS) {
+				return negate(unary);
+			}
+		} else if (expr instanceof Grouping) {
+			return evaluateDouble(((Grouping) expr).expr);
+		}
+
+		Object value = evaluate(expr);
+
+		if (value instanceof Double) {
+			return (double) value;
+		}
+		throw NotANumber.INSTANCE;
+	}
+
+	// when the left operand isn't a number the right one is still evaluated, so its
+	// side effects happen and its errors win, the same as for any other operator
+	private double left(Binary binary) {
+		try {
+			return evaluateDouble(binary.left);
+		} catch (NotANumber e) {
+			Object right = evaluate(binary.right);
+
+			if (binary.operator.type == TokenType.SLASH && right instanceof Double && (double) right == 0) {
+				throw new RuntimeError(binary.operator, "division by zero.");
+			}
+			throw new RuntimeError(binary.operator, "operands must be a number.");
+		}
+	}
+
+	private double right(Binary binary) {
+		try {
+			return evaluateDouble(binary.right);
+		} catch (NotANumber e) {
+			throw new RuntimeError(binary.operator, "operands must be a number.");
+		}
+	}
+
+	private double negate(Unary unary) {
+		try {
+			return -evaluateDouble(unary.right);
+		} catch (NotANumber e) {
+			throw new RuntimeError(unary.operator, "operand must be a number.");
+		}
+	}
+
+	private double divide(Binary binary) {
+		double left = left(binary);
+		double right = right(binary);
+
+		if (right == 0) {
+			throw new RuntimeError(binary.operator, "division by zero.");
+		}
+		return left / right;
+	}
+
 	@Override
 	public Object visitUnary(Unary unary) {
-		Object right = evaluate(unary.right);
-
 		switch (unary.operator.type) {
 			case MINUS: {
-				checkNumberOperand(unary.operator, right);
-				return -(double) right;
+				return negate(unary);
 			}
 			case BANG: {
+				Object right = evaluate(unary.right);
 				checkNumberOperand(unary.operator, right);
 				return !isTruthy(right);
 			}
@@ -150,27 +607,39 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				}
 				return evaluate(binary.right);
 			}
-		}
-
-		Object left = evaluate(binary.left);
-		Object right = evaluate(binary.right);
-
-		switch (binary.operator.type) {
 			case MINUS: {
-				checkNumberOperands(binary.operator, left, right);
-				return (double) left - (double) right;
+				return left(binary) - right(binary);
 			}
 			case STAR: {
-				checkNumberOperands(binary.operator, left, right);
-				return (double) left * (double) right;
+				return left(binary) * right(binary);
 			}
 			case SLASH: {
-				if (right instanceof Double && (double) right == 0) {
-					throw new RuntimeError(binary.operator, "division by zero.");
+				return divide(binary);
+			}
+			case GREATER: {
+				return left(binary) > right(binary);
+			}
+			case GREATER_EQUAL: {
+				return left(binary) >= right(binary);
+			}
+			case LESS: {
+				return left(binary) < right(binary);
+			}
+			case LESS_EQUAL: {
+				return left(binary) <= right(binary);
+			}
+			case PLUS: {
+				if (binary.numeric) {
+					return left(binary) + right(binary);
 				}
-				checkNumberOperands(binary.operator, left, right);
-				return (double) left / (double) right;
+				break;
 			}
+		}
+
+		Object left = evaluate(binary.left);
+		Object right = evaluate(binary.right);
+
+		switch (binary.operator.type) {
 			case PLUS: {
 				if (left instanceof String || right instanceof String) {
 					return stringify(left) + stringify(right);
@@ -181,22 +650,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 							"operands must be two strings or two numbers");
 				}
 			}
-			case GREATER: {
-				checkNumberOperands(binary.operator, left, right);
-				return (double) left > (double) right;
-			}
-			case GREATER_EQUAL: {
-				checkNumberOperands(binary.operator, left, right);
-				return (double) left >= (double) right;
-			}
-			case LESS: {
-				checkNumberOperands(binary.operator, left, right);
-				return (double) left < (double) right;
-			}
-			case LESS_EQUAL: {
-				checkNumberOperands(binary.operator, left, right);
-				return (double) left <= (double) right;
-			}
 			case EQUAL_EQUAL: {
 				return isEqual(left, right);
 			}
@@ -227,23 +680,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitPrint(Print expr) {
 		Object e = evaluate(expr.expr);
-		System.out.println(stringify(e));
+		out.println(stringify(e));
 		return null;
 	}
 
 	@Override
 	public Object visitVariableExpr(VariableExpr variable) {
-		return lookUpVariable(variable.name, variable);
+		return lookUpVariable(variable);
 	}
 
-	private Object lookUpVariable(Token name, Expr expr) {
-		Integer distance = locals.get(expr);
+	private Object lookUpVariable(VariableExpr variable) {
+		if (variable.depth != -1) {
+			return env.getAt(variable.depth, variable.slot);
+		}
 
-		if (distance != null) {
-			return env.getAt(distance, name.lexeme);
-		} else {
-			return globals.get(name);
+		GlobalCell cell = variable.cell;
+		// a tree may be run by more than one interpreter, so the cache is keyed by owner
+		if (cell == null || cell.owner != globals) {
+			cell = globals.cell(variable.name.symbol);
+			variable.cell = cell;
 		}
+		return cell.get(variable.name);
 	}
 
 	@Override
@@ -252,26 +709,38 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		if (var.initializer != null) {
 			initializer = evaluate(var.initializer);
 		}
-		env.define(var.name.lexeme, initializer);
+		if (var.slot == -1) {
+			globals.define(var.name.symbol, initializer);
+		} else {
+			env.define(var.slot, initializer);
+		}
 		return null;
 	}
 
 	@Override
 	public Object visitAssign(Assign assign) {
 		Object value = evaluate(assign.value);
-		Integer distance = locals.get(assign);
+		if (assign.depth != -1) {
+			env.assignAt(assign.depth, assign.slot, value);
+			return value;
+		}
 
-		if (distance != null) {
-			env.assignAt(distance, assign.name, value);
-		} else {
-			globals.assign(assign.name, value);
+		GlobalCell cell = assign.cell;
+		if (cell == null || cell.owner != globals) {
+			cell = globals.cell(assign.name.symbol);
+			assign.cell = cell;
 		}
-		return value;
+		return cell.assign(assign.name, value);
 	}
 
 	@Override
 	public Void visitBlock(Block block) {
-		executeBlock(block.statements, new Environment(this.env));
+		if (block.flattened) {
+			executeBlock(block.statements, env);
+		} else {
+			environments++;
+			executeBlock(block.statements, new Environment(env, block.frameSize));
+		}
 		return null;
 	}
 
@@ -282,12 +751,51 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 			for (Stmt statement : statements) {
 				execute(statement);
+
+				if (completion != Completion.NORMAL) {
+					break;
+				}
 			}
 		} finally {
 			this.env = previous;
 		}
 	}
 
+	private void push(Object value) {
+		if (sp == stack.length) {
+			stack = Arrays.copyOf(stack, sp * 2);
+		}
+		stack[sp++] = value;
+	}
+
+	LoxFunction tailCallee() {
+		return completion == Completion.TAIL_CALL ? tailCallee : null;
+	}
+
+	void enterTailCall(Environment frame) {
+		int arity = tailCallee.arity();
+
+		sp -= arity;
+		System.arraycopy(stack, sp, frame.values, 0, arity);
+		Arrays.fill(stack, sp, sp + arity, null);
+
+		tailCallee = null;
+		completion = Completion.NORMAL;
+	}
+
+	Object executeFunction(List<Stmt> statements, Environment environment) {
+		executeBlock(statements, environment);
+
+		if (completion != Completion.RETURN) {
+			return null;
+		}
+
+		Object value = returnValue;
+		completion = Completion.NORMAL;
+		returnValue = null;
+		return value;
+	}
+
 	@Override
 	public Void visitIfStmt(IfStmt ifStmt) {
 		Object condition = evaluate(ifStmt.condition);
@@ -304,10 +812,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitWhileStmt(WhileStmt whileStmt) {
 		while (isTruthy(evaluate(whileStmt.condition))) {
-			try {
-				execute(whileStmt.body);
-			} catch (Break e) {
-				break;
+			governor.tick();
+			execute(whileStmt.body);
+
+			if (completion != Completion.NORMAL) {
+				if (completion == Completion.BREAK) {
+					completion = Completion.NORMAL;
+					break;
+				}
+				if (completion != Completion.CONTINUE) {
+					return null;
+				}
+				completion = Completion.NORMAL;
+			}
+
+			if (whileStmt.increment != null) {
+				evaluate(whileStmt.increment);
 			}
 		}
 		return null;
@@ -315,13 +835,56 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitBreakStmt(BreakStmt breakStmt) {
-		throw new Break(breakStmt.token, "unexpeced token 'break' outside of loop.");
+		completion = Completion.BREAK;
+		return null;
+	}
+
+	@Override
+	public Void visitContinueStmt(ContinueStmt continueStmt) {
+		completion = Completion.CONTINUE;
+		return null;
 	}
 
 	@Override
 	public Object visitCall(Call call) {
 		Object callee = evaluate(call.callee);
+		LoxFunction function = matchedFunction(call, callee);
+
+		if (function != null) {
+			Environment frame = function.frame(this);
+			List<Expr> arguments = call.arguments;
+
+			for (int i = 0; i < arguments.size(); i++) {
+				frame.values[i] = evaluate(arguments.get(i));
+			}
+
+			try {
+				return function.invoke(this, frame);
+			} catch (StackOverflowError e) {
+				// only the innermost call catches it, the rest see a lox error
+				throw new RuntimeError(call.paren, "Stack overflow.");
+			}
+		}
 
+		return callGeneric(call, callee);
+	}
+
+	// the callee when it is a function whose arity matched, or null for the generic path
+	private LoxFunction matchedFunction(Call call, Object callee) {
+		if (!(callee instanceof LoxFunction)) {
+			return null;
+		}
+
+		LoxFunction function = (LoxFunction) callee;
+
+		// arity only depends on the declaration, so all closures of it share the check
+		if (call.target != function.declaration && function.arity() == call.arguments.size()) {
+			call.target = function.declaration;
+		}
+		return call.target == function.declaration ? function : null;
+	}
+
+	private Object callGeneric(Call call, Object callee) {
 		List<Object> args = new ArrayList<>();
 		for (Expr arg : call.arguments) {
 			args.add(evaluate(arg));
@@ -338,12 +901,80 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 					+ " arguments but got " + args.size() + ".");
 		}
 
-		return function.call(this, args);
+		return callNative(function, call.paren, args);
+	}
+
+	// natives don't know where they were called from, so their errors get the
+	// token of the call. the token is also left in callSite for natives that need it
+	Object callNative(LoxCallable function, Token paren, List<Object> args) {
+		callSite = paren;
+		try {
+			return function.call(this, args);
+		} catch (RuntimeError e) {
+			if (e.token != null) {
+				throw e;
+			}
+			throw new RuntimeError(paren, e.getMessage());
+		}
+	}
+
+	@Override
+	public Object visitArrayLiteral(ArrayLiteral array) {
+		LoxArray result = new LoxArray(array.elements.size());
+
+		for (Expr element : array.elements) {
+			result.push(evaluate(element));
+		}
+		return result;
+	}
+
+	@Override
+	public Object visitIndex(Index index) {
+		LoxArray array = array(index.bracket, evaluate(index.array));
+		return get(index.bracket, array, evaluate(index.index));
+	}
+
+	@Override
+	public Object visitSetIndex(SetIndex setIndex) {
+		LoxArray array = array(setIndex.bracket, evaluate(setIndex.array));
+		Object position = evaluate(setIndex.index);
+		Object value = evaluate(setIndex.value);
+
+		set(setIndex.bracket, array, position, value);
+		return value;
+	}
+
+	static LoxArray array(Token bracket, Object value) {
+		if (!(value instanceof LoxArray)) {
+			throw new RuntimeError(bracket, "can only index arrays.");
+		}
+		return (LoxArray) value;
+	}
+
+	static Object get(Token bracket, LoxArray array, Object position) {
+		Object element = array.at(position);
+
+		if (element == LoxArray.NO_ELEMENT) {
+			throw new RuntimeError(bracket, "array index must be a whole number within bounds.");
+		}
+		return element;
+	}
+
+	static void set(Token bracket, LoxArray array, Object position, Object value) {
+		if (!array.store(position, value)) {
+			throw new RuntimeError(bracket, "array index must be a whole number within bounds.");
+		}
 	}
 
 	@Override
 	public Void visitFunctionStmt(Function function) {
-		env.define(function.name.lexeme, new LoxFunction(function, env));
+		LoxFunction fn = new LoxFunction(function, env);
+
+		if (function.slot == -1) {
+			globals.define(function.name.symbol, fn);
+		} else {
+			env.define(function.slot, fn);
+		}
 		return null;
 	}
 
@@ -351,14 +982,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	public Void visitReturnStmt(ReturnStmt returnStmt) {
 		Object value = null;
 
-		if (returnStmt.value != null) {
+		if (returnStmt.tailCall) {
+			Call call = (Call) returnStmt.value;
+			Object callee = evaluate(call.callee);
+			LoxFunction function = matchedFunction(call, callee);
+
+			if (function != null) {
+				// the caller's frame is still live while the arguments are evaluated, so
+				// they wait on the stack until the calling function unwinds
+				for (Expr argument : call.arguments) {
+					push(evaluate(argument));
+				}
+
+				tailCallee = function;
+				completion = Completion.TAIL_CALL;
+				return null;
+			}
+
+			value = callGeneric(call, callee);
+		} else if (returnStmt.value != null) {
 			value = evaluate(returnStmt.value);
 		}
 
-		throw new Return(value);
-	}
-
-	public void resolve(Expr expr, int depth) {
-		locals.put(expr, depth);
+		returnValue = value;
+		completion = Completion.RETURN;
+		return null;
 	}
 }
@@ -0,0 +1,49 @@
+package com.hjonas.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+class Jit {
+	static final int THRESHOLD = 500;
+	static final int MAX_DEOPTS = 8;
+
+	interface Code {
+		double call(Governor governor, Object[] arguments);
+	}
+
+	static class Deopt extends RuntimeException {
+		static final Deopt INSTANCE = new Deopt();
+
+		private Deopt() {
+			super(null, null, false, false);
+		}
+	}
+
+	static class Compiled {
+		final Code code;
+		final boolean recursive;
+
+		Compiled(Code code, boolean recursive) {
+			this.code = code;
+			this.recursive = recursive;
+		}
+	}
+
+	static Compiled compile(Stmt.Function function) {
+		JitCompiler compiler = new JitCompiler(function);
+		byte[] bytes = compiler.compile();
+
+		if (bytes == null) {
+			return null;
+		}
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			Code code = (Code) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+					.invoke();
+			return new Compiled(code, compiler.isRecursive());
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,549 @@
+package com.hjonas.lox;
+
+import static com.hjonas.lox.ClassFileBuilder.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hjonas.lox.Expr.ArrayLiteral;
+import com.hjonas.lox.Expr.Assign;
+import com.hjonas.lox.Expr.Binary;
+import com.hjonas.lox.Expr.Call;
+import com.hjonas.lox.Expr.Grouping;
+import com.hjonas.lox.Expr.Index;
+import com.hjonas.lox.Expr.Literal;
+import com.hjonas.lox.Expr.SetIndex;
+import com.hjonas.lox.Expr.Unary;
+import com.hjonas.lox.Expr.VariableExpr;
+import com.hjonas.lox.Stmt.Block;
+import com.hjonas.lox.Stmt.BreakStmt;
+import com.hjonas.lox.Stmt.ContinueStmt;
+import com.hjonas.lox.Stmt.Expression;
+import com.hjonas.lox.Stmt.Function;
+import com.hjonas.lox.Stmt.IfStmt;
+import com.hjonas.lox.Stmt.Print;
+import com.hjonas.lox.Stmt.ReturnStmt;
+import com.hjonas.lox.Stmt.VariableStmt;
+import com.hjonas.lox.Stmt.WhileStmt;
+
+// Compiles functions that only compute with numbers and local variables into a
+// hidden class. Anything else makes the function ineligible. Compiled code has no
+// side effects, so whenever it cannot reproduce the interpreter exactly (division
+// by zero, falling off the end) it throws Jit.Deopt and the call is re-run interpreted.
+// It ticks the governor of the calling interpreter on every loop iteration and call,
+// like the interpreter does, so limits and cancellation reach it too.
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	private static final String CLASS_NAME = "com/hjonas/lox/JitFunction";
+	private static final String CODE = "com/hjonas/lox/Jit$Code";
+	private static final String DEOPT = "com/hjonas/lox/Jit$Deopt";
+	private static final String GOVERNOR = "com/hjonas/lox/Governor";
+	// run takes the governor in local 0, followed by the parameters
+	private static final int FIRST_PARAMETER = 1;
+
+	private static class Unsupported extends RuntimeException {
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	private final Function function;
+	private final String runDescriptor;
+	private final List<Map<Symbol, Integer>> scopes = new ArrayList<>();
+	private ClassFileBuilder classFile;
+	private ClassFileBuilder.Code code;
+	private ClassFileBuilder.Label loopEnd;
+	private ClassFileBuilder.Label loopNext;
+	private ClassFileBuilder.Label bodyStart;
+	private int nextLocal;
+	private boolean recursive;
+
+	JitCompiler(Function function) {
+		this.function = function;
+
+		StringBuilder descriptor = new StringBuilder("(L" + GOVERNOR + ";");
+		for (int i = 0; i < function.params.size(); i++) {
+			descriptor.append('D');
+		}
+		this.runDescriptor = descriptor.append(")D").toString();
+	}
+
+	byte[] compile() {
+		if (function.slot != -1 || function.params.size() > 127) {
+			return null;
+		}
+
+		try {
+			classFile = new ClassFileBuilder(CLASS_NAME, "java/lang/Object", CODE);
+			emitConstructor();
+			emitEntry();
+			emitRun();
+			return classFile.toByteArray();
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	boolean isRecursive() {
+		return recursive;
+	}
+
+	private void emitConstructor() {
+		code = classFile.method(ACC_PUBLIC, "<init>", "()V");
+		code.op(ALOAD_0, 1);
+		code.opWithIndex(INVOKESPECIAL, classFile.methodRef("java/lang/Object", "<init>", "()V"), -1);
+		code.op(RETURN, 0);
+		code.end(1);
+	}
+
+	private void emitEntry() {
+		int doubleClass = classFile.classRef("java/lang/Double");
+		int doubleValue = classFile.methodRef("java/lang/Double", "doubleValue", "()D");
+
+		code = classFile.method(ACC_PUBLIC, "call", "(L" + GOVERNOR + ";[Ljava/lang/Object;)D");
+		code.op(ALOAD_1, 1);
+		for (int i = 0; i < function.params.size(); i++) {
+			code.op(ALOAD_2, 1);
+			code.op(BIPUSH, i, 1);
+			code.op(AALOAD, -1);
+			code.opWithIndex(CHECKCAST, doubleClass, 0);
+			code.opWithIndex(INVOKEVIRTUAL, doubleValue, 1);
+		}
+		emitInvokeRun();
+		code.op(DRETURN, -2);
+		code.end(3);
+	}
+
+	private void emitRun() {
+		code = classFile.method(ACC_STATIC, "run", runDescriptor);
+		nextLocal = FIRST_PARAMETER;
+
+		beginScope();
+		for (Token param : function.params) {
+			declare(param);
+		}
+		bodyStart = new ClassFileBuilder.Label();
+		code.mark(bodyStart);
+		for (Stmt statement : ((Block) function.body).statements) {
+			compile(statement);
+		}
+		endScope();
+
+		// falling off the end returns nil, which compiled code cannot represent
+		emitDeopt();
+
+		if (code.length() > Short.MAX_VALUE) {
+			throw new Unsupported();
+		}
+		code.end(nextLocal);
+	}
+
+	// expects the governor and the arguments on the stack
+	private void emitInvokeRun() {
+		int argumentWords = 1 + function.params.size() * 2;
+		code.opWithIndex(INVOKESTATIC, classFile.methodRef(CLASS_NAME, "run", runDescriptor),
+				2 - argumentWords);
+	}
+
+	private void emitTick() {
+		code.op(ALOAD_0, 1);
+		code.opWithIndex(INVOKEVIRTUAL, classFile.methodRef(GOVERNOR, "tick", "()V"), -1);
+	}
+
+	private void emitDeopt() {
+		code.opWithIndex(GETSTATIC, classFile.fieldRef(DEOPT, "INSTANCE", "L" + DEOPT + ";"), 1);
+		code.op(ATHROW, -1);
+	}
+
+	private void beginScope() {
+		scopes.add(new HashMap<>());
+	}
+
+	private void endScope() {
+		scopes.remove(scopes.size() - 1);
+	}
+
+	private int declare(Token name) {
+		if (nextLocal > 253) {
+			throw new Unsupported();
+		}
+
+		int local = nextLocal;
+		scopes.get(scopes.size() - 1).put(name.symbol, local);
+		nextLocal += 2;
+		return local;
+	}
+
+	private int local(Token name, int depth) {
+		if (depth == -1) {
+			throw new Unsupported();
+		}
+
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			Integer local = scopes.get(i).get(name.symbol);
+			if (local != null) {
+				return local;
+			}
+		}
+
+		throw new Unsupported();
+	}
+
+	private void compile(Stmt statement) {
+		statement.accept(this);
+	}
+
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+
+	private void branch(Expr condition, boolean jumpIf, ClassFileBuilder.Label target) {
+		if (condition instanceof Grouping) {
+			branch(((Grouping) condition).expr, jumpIf, target);
+			return;
+		}
+
+		if (condition instanceof Literal && ((Literal) condition).value instanceof Boolean) {
+			if (((Literal) condition).value.equals(jumpIf)) {
+				code.jump(GOTO, target, 0);
+			}
+			return;
+		}
+
+		if (condition instanceof Binary) {
+			Binary binary = (Binary) condition;
+
+			switch (binary.operator.type) {
+				case AND: {
+					if (jumpIf) {
+						ClassFileBuilder.Label skip = new ClassFileBuilder.Label();
+						branch(binary.left, false, skip);
+						branch(binary.right, true, target);
+						code.mark(skip);
+					} else {
+						branch(binary.left, false, target);
+						branch(binary.right, false, target);
+					}
+					return;
+				}
+				case OR: {
+					if (jumpIf) {
+						branch(binary.left, true, target);
+						branch(binary.right, true, target);
+					} else {
+						ClassFileBuilder.Label skip = new ClassFileBuilder.Label();
+						branch(binary.left, true, skip);
+						branch(binary.right, false, target);
+						code.mark(skip);
+					}
+					return;
+				}
+				case LESS: {
+					compare(binary, DCMPG, jumpIf ? IFLT : IFGE, target);
+					return;
+				}
+				case LESS_EQUAL: {
+					compare(binary, DCMPG, jumpIf ? IFLE : IFGT, target);
+					return;
+				}
+				case GREATER: {
+					compare(binary, DCMPL, jumpIf ? IFGT : IFLE, target);
+					return;
+				}
+				case GREATER_EQUAL: {
+					compare(binary, DCMPL, jumpIf ? IFGE : IFLT, target);
+					return;
+				}
+				case EQUAL_EQUAL: {
+					equality(binary, jumpIf ? IFEQ : IFNE, target);
+					return;
+				}
+				case BANG_EQUAL: {
+					equality(binary, jumpIf ? IFNE : IFEQ, target);
+					return;
+				}
+			}
+		}
+
+		// any number is truthy
+		compile(condition);
+		code.op(POP2, -2);
+		if (jumpIf) {
+			code.jump(GOTO, target, 0);
+		}
+	}
+
+	private void compare(Binary binary, int comparison, int jump, ClassFileBuilder.Label target) {
+		compile(binary.left);
+		compile(binary.right);
+		code.op(comparison, -3);
+		code.jump(jump, target, -1);
+	}
+
+	private void equality(Binary binary, int jump, ClassFileBuilder.Label target) {
+		int bits = classFile.methodRef("java/lang/Double", "doubleToLongBits", "(D)J");
+
+		compile(binary.left);
+		code.opWithIndex(INVOKESTATIC, bits, 0);
+		compile(binary.right);
+		code.opWithIndex(INVOKESTATIC, bits, 0);
+		code.op(LCMP, -3);
+		code.jump(jump, target, -1);
+	}
+
+	@Override
+	public Void visitUnary(Unary unary) {
+		if (unary.operator.type != TokenType.MINUS) {
+			throw new Unsupported();
+		}
+
+		compile(unary.right);
+		code.op(DNEG, 0);
+		return null;
+	}
+
+	@Override
+	public Void visitBinary(Binary binary) {
+		switch (binary.operator.type) {
+			case PLUS: {
+				compile(binary.left);
+				compile(binary.right);
+				code.op(DADD, -2);
+				return null;
+			}
+			case MINUS: {
+				compile(binary.left);
+				compile(binary.right);
+				code.op(DSUB, -2);
+				return null;
+			}
+			case STAR: {
+				compile(binary.left);
+				compile(binary.right);
+				code.op(DMUL, -2);
+				return null;
+			}
+			case SLASH: {
+				compile(binary.left);
+				compile(binary.right);
+
+				ClassFileBuilder.Label divide = new ClassFileBuilder.Label();
+				code.op(DUP2, 2);
+				code.op(DCONST_0, 2);
+				code.op(DCMPL, -3);
+				code.jump(IFNE, divide, -1);
+				emitDeopt();
+				code.mark(divide);
+				code.op(DDIV, -2);
+				return null;
+			}
+		}
+
+		throw new Unsupported();
+	}
+
+	@Override
+	public Void visitGroupping(Grouping grouping) {
+		compile(grouping.expr);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteral(Literal literal) {
+		if (!(literal.value instanceof Double)) {
+			throw new Unsupported();
+		}
+
+		code.opWithIndex(LDC2_W, classFile.doubleConstant((double) literal.value), 2);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(VariableExpr variable) {
+		code.op(DLOAD, local(variable.name, variable.depth), 2);
+		return null;
+	}
+
+	@Override
+	public Void visitAssign(Assign assign) {
+		int local = local(assign.name, assign.depth);
+
+		compile(assign.value);
+		code.op(DUP2, 2);
+		code.op(DSTORE, local, -2);
+		return null;
+	}
+
+	@Override
+	public Void visitCall(Call call) {
+		checkSelfCall(call);
+
+		emitTick();
+		code.op(ALOAD_0, 1);
+		for (Expr argument : call.arguments) {
+			compile(argument);
+		}
+
+		recursive = true;
+		emitInvokeRun();
+		return null;
+	}
+
+	@Override
+	public Void visitArrayLiteral(ArrayLiteral array) {
+		throw new Unsupported();
+	}
+
+	@Override
+	public Void visitIndex(Index index) {
+		throw new Unsupported();
+	}
+
+	@Override
+	public Void visitSetIndex(SetIndex setIndex) {
+		throw new Unsupported();
+	}
+
+	private void checkSelfCall(Call call) {
+		if (!(call.callee instanceof VariableExpr)) {
+			throw new Unsupported();
+		}
+
+		VariableExpr callee = (VariableExpr) call.callee;
+		if (callee.depth != -1 || callee.name.symbol != function.name.symbol
+				|| call.arguments.size() != function.params.size()) {
+			throw new Unsupported();
+		}
+	}
+
+	@Override
+	public Void visitExpression(Expression expr) {
+		compile(expr.expr);
+		code.op(POP2, -2);
+		return null;
+	}
+
+	@Override
+	public Void visitPrint(Print print) {
+		throw new Unsupported();
+	}
+
+	@Override
+	public Void visitVariableStmt(VariableStmt var) {
+		if (var.initializer == null) {
+			throw new Unsupported();
+		}
+
+		compile(var.initializer);
+		code.op(DSTORE, declare(var.name), -2);
+		return null;
+	}
+
+	@Override
+	public Void visitBlock(Block block) {
+		beginScope();
+		for (Stmt statement : block.statements) {
+			compile(statement);
+		}
+		endScope();
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(IfStmt ifStmt) {
+		ClassFileBuilder.Label elseBranch = new ClassFileBuilder.Label();
+		ClassFileBuilder.Label end = new ClassFileBuilder.Label();
+
+		branch(ifStmt.condition, false, elseBranch);
+		compile(ifStmt.thenBranch);
+		code.jump(GOTO, end, 0);
+		code.mark(elseBranch);
+		if (ifStmt.elseBranch != null) {
+			compile(ifStmt.elseBranch);
+		}
+		code.mark(end);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(WhileStmt whileStmt) {
+		ClassFileBuilder.Label start = new ClassFileBuilder.Label();
+		ClassFileBuilder.Label next = new ClassFileBuilder.Label();
+		ClassFileBuilder.Label end = new ClassFileBuilder.Label();
+		ClassFileBuilder.Label enclosingLoopEnd = loopEnd;
+		ClassFileBuilder.Label enclosingLoopNext = loopNext;
+
+		code.mark(start);
+		branch(whileStmt.condition, false, end);
+		loopEnd = end;
+		loopNext = next;
+		compile(whileStmt.body);
+		loopEnd = enclosingLoopEnd;
+		loopNext = enclosingLoopNext;
+
+		code.mark(next);
+		if (whileStmt.increment != null) {
+			compile(whileStmt.increment);
+			code.op(POP2, -2);
+		}
+		emitTick();
+		code.jump(GOTO, start, 0);
+		code.mark(end);
+		return null;
+	}
+
+	@Override
+	public Void visitBreakStmt(BreakStmt breakStmt) {
+		if (loopEnd == null) {
+			throw new Unsupported();
+		}
+
+		code.jump(GOTO, loopEnd, 0);
+		return null;
+	}
+
+	@Override
+	public Void visitContinueStmt(ContinueStmt continueStmt) {
+		if (loopNext == null) {
+			throw new Unsupported();
+		}
+
+		code.jump(GOTO, loopNext, 0);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Function function) {
+		throw new Unsupported();
+	}
+
+	@Override
+	public Void visitReturnStmt(ReturnStmt returnStmt) {
+		if (returnStmt.value == null) {
+			throw new Unsupported();
+		}
+
+		if (returnStmt.tailCall) {
+			Call call = (Call) returnStmt.value;
+
+			// a tail call to itself becomes a jump back to the top with the new arguments
+			checkSelfCall(call);
+			for (Expr argument : call.arguments) {
+				compile(argument);
+			}
+			for (int i = function.params.size() - 1; i >= 0; i--) {
+				code.op(DSTORE, FIRST_PARAMETER + i * 2, -2);
+			}
+
+			recursive = true;
+			emitTick();
+			code.jump(GOTO, bodyStart, 0);
+			return null;
+		}
+
+		compile(returnStmt.value);
+		code.op(DRETURN, -2);
+		return null;
+	}
+}
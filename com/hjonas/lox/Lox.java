@@ -1,32 +1,73 @@
 package com.hjonas.lox;
 
-import static com.hjonas.lox.TokenType.EOF;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Lox {
-	static boolean hadError = false;
-	static boolean hadRuntimeError = false;
-	private static Interpreter interpreter = new Interpreter();
-
 	public static void main(String[] args) throws IOException {
-		if (args.length > 1) {
-			System.out.println("Usage: jlox <script>");
+		LoxEngine.Backend backend = LoxEngine.Backend.AST;
+		boolean jit = false;
+		boolean cache = true;
+		String profile = null;
+		String script = null;
+
+		for (String arg : args) {
+			if (arg.equals("--engine=vm")) {
+				backend = LoxEngine.Backend.VM;
+			} else if (arg.equals("--engine=nodes")) {
+				backend = LoxEngine.Backend.NODES;
+			} else if (arg.equals("--jit")) {
+				jit = true;
+			} else if (arg.equals("--profile")) {
+				profile = "profile.folded";
+			} else if (arg.startsWith("--profile=")) {
+				profile = arg.substring("--profile=".length());
+			} else if (arg.equals("--no-cache")) {
+				cache = false;
+			} else if (arg.equals("--engine=ast")) {
+				backend = LoxEngine.Backend.AST;
+			} else if (script == null && !arg.startsWith("--")) {
+				script = arg;
+			} else {
+				System.out.println("Usage: jlox [--engine=ast|vm|nodes] [--jit] [--no-cache] [--profile[=file]] [script]");
+				System.exit(64);
+			}
+		}
+
+		if (profile != null && backend != LoxEngine.Backend.AST) {
+			System.err.println("--profile only works with --engine=ast.");
 			System.exit(64);
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		}
+
+		LoxContext context = new LoxEngine(backend, jit).newContext();
+		Profiler profiler = profile != null ? context.startProfiling(1, TimeUnit.MILLISECONDS) : null;
+		int status = 0;
+
+		if (script != null) {
+			status = runFile(context, script, cache);
 		} else {
-			runPrompt();
+			runPrompt(context);
+		}
+
+		if (profiler != null) {
+			profiler.stop();
+			try (PrintStream out = new PrintStream(profile)) {
+				profiler.writeCollapsed(out);
+			}
+			profiler.writeTable(System.err);
+		}
+
+		if (status != 0) {
+			System.exit(status);
 		}
 	}
 
-	private static void runPrompt() throws IOException {
+	private static void runPrompt(LoxContext context) throws IOException {
 		InputStreamReader iStreamReader = new InputStreamReader(System.in);
 		BufferedReader br = new BufferedReader(iStreamReader);
 
@@ -38,69 +79,27 @@ public class Lox {
 				break;
 			}
 
-			run(line);
-			hadError = false;
+			context.run(line);
+			context.clearErrors();
 		}
 	}
 
-	private static void runFile(String string) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(string));
-		run(new String(bytes, Charset.defaultCharset()));
+	private static int runFile(LoxContext context, String string, boolean cache) throws IOException {
+		Path path = Paths.get(string);
+		MappedSource source = MappedSource.map(path);
 
-		if (hadError) {
-			System.exit(65);
-		}
-		if (hadRuntimeError) {
-			System.exit(70);
-		}
-	}
-
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-		List<Stmt> statements = new Parser(tokens).parse();
+		CompiledScript script = cache ? ScriptCache.compile(context, path, source) : context.compile(string, source);
 
-		if (hadError) {
-			return;
+		if (script != null) {
+			context.run(script);
 		}
 
-		Resolver resolver = new Resolver(interpreter);
-		resolver.resolve(statements);
-
-		if (hadError) {
-			return;
+		if (context.hadError()) {
+			return 65;
 		}
-
-		try {
-			interpreter.interpret(statements);
-		} catch (RuntimeError e) {
-			error(e.token, e.getMessage());
-			hadRuntimeError = true;
-		} catch (Break e) {
-			error(e.token, e.getMessage());
-			hadRuntimeError = true;
-		}
-	}
-
-	static void error(Token token, String message) {
-		if (token.type.equals(EOF)) {
-			report(token.line, " at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
+		if (context.hadRuntimeError()) {
+			return 70;
 		}
-	}
-
-	static void error(int line, String message) {
-		report(line, "", message);
-	}
-
-	private static void report(int line, String where, String message) {
-		System.err.println("[line " + line + "] Error" + where + ": " + message);
-		hadError = true;
-	}
-
-	public static void runtimeError(RuntimeError e) {
-		System.out.println(e.getMessage() + "\n[line " + e.token.line + "]");
-		hadRuntimeError = true;
+		return 0;
 	}
 }
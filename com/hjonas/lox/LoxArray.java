@@ -0,0 +1,167 @@
+package com.hjonas.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// a growable list of values. while it has only ever held numbers they are kept
+// unboxed in a double[]; the first store of anything else moves all elements to an
+// Object[] for good. spawned threads can share an array, so every access holds
+// its monitor; callers that check an index and then use it hold it across both
+final class LoxArray {
+	// what at() returns for an index that isn't a whole number within bounds
+	static final Object NO_ELEMENT = new Object();
+
+	private double[] numbers;
+	private Object[] values;
+	private int size;
+
+	LoxArray(int capacity) {
+		numbers = new double[Math.max(capacity, 4)];
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	synchronized boolean isNumeric() {
+		return values == null;
+	}
+
+	// the position for a lox index, or -1 when it isn't a whole number within bounds
+	synchronized int index(Object position) {
+		return position instanceof Double ? index((double) position) : -1;
+	}
+
+	synchronized int index(double position) {
+		int index = (int) position;
+		return index == position && index >= 0 && index < size ? index : -1;
+	}
+
+	// only while the array is numeric
+	synchronized double number(int index) {
+		return numbers[index];
+	}
+
+	synchronized Object get(int index) {
+		if (values == null) {
+			return numbers[index];
+		}
+		return values[index];
+	}
+
+	// get and set for a lox index, checked and used under one lock
+	synchronized Object at(Object position) {
+		int index = index(position);
+		return index != -1 ? get(index) : NO_ELEMENT;
+	}
+
+	synchronized boolean store(Object position, Object value) {
+		int index = index(position);
+
+		if (index == -1) {
+			return false;
+		}
+		set(index, value);
+		return true;
+	}
+
+	synchronized void set(int index, Object value) {
+		if (values == null) {
+			if (value instanceof Double) {
+				numbers[index] = (double) value;
+				return;
+			}
+			box();
+		}
+		values[index] = value;
+	}
+
+	synchronized void set(int index, double value) {
+		if (values == null) {
+			numbers[index] = value;
+		} else {
+			values[index] = value;
+		}
+	}
+
+	synchronized void push(Object value) {
+		if (values == null) {
+			if (value instanceof Double) {
+				push((double) value);
+				return;
+			}
+			box();
+		}
+
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	synchronized void push(double value) {
+		if (values != null) {
+			push((Object) value);
+			return;
+		}
+
+		if (size == numbers.length) {
+			numbers = Arrays.copyOf(numbers, size * 2);
+		}
+		numbers[size++] = value;
+	}
+
+	// the last element, which the caller has checked exists
+	synchronized Object pop() {
+		Object last = get(--size);
+		if (values != null) {
+			values[size] = null;
+		}
+		return last;
+	}
+
+	private void box() {
+		values = new Object[numbers.length];
+		for (int i = 0; i < size; i++) {
+			values[i] = numbers[i];
+		}
+		numbers = null;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		append(text, Collections.newSetFromMap(new IdentityHashMap<>()));
+		return text.toString();
+	}
+
+	// an array that holds itself, directly or further down, prints as [...] there.
+	// the elements are copied out first, so no other monitor is taken while this
+	// one is held
+	void append(StringBuilder text, Set<Object> open) {
+		if (!open.add(this)) {
+			text.append("[...]");
+			return;
+		}
+
+		Object[] elements;
+		synchronized (this) {
+			elements = new Object[size];
+			for (int i = 0; i < size; i++) {
+				elements[i] = get(i);
+			}
+		}
+
+		text.append('[');
+		for (int i = 0; i < elements.length; i++) {
+			if (i > 0) {
+				text.append(", ");
+			}
+			Interpreter.stringify(text, elements[i], open);
+		}
+		text.append(']');
+		open.remove(this);
+	}
+}
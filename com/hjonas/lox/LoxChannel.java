@@ -0,0 +1,59 @@
+package com.hjonas.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+// a blocking queue between lox threads. with capacity 0 every send waits for a
+// receiver. queues can't hold null, so nil travels as a marker
+final class LoxChannel {
+	private static final Object NIL = new Object();
+	// how long a blocked send or receive waits before it asks the governor again
+	private static final long WAIT_MILLIS = 10;
+
+	private final BlockingQueue<Object> queue;
+
+	LoxChannel(int capacity) {
+		queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+	}
+
+	void send(Object value, Governor governor) {
+		Object element = value != null ? value : NIL;
+
+		try {
+			while (!queue.offer(element, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+				governor.waiting();
+			}
+		} catch (InterruptedException e) {
+			throw interrupted();
+		}
+	}
+
+	Object receive(Governor governor) {
+		try {
+			Object element;
+			while ((element = queue.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+				governor.waiting();
+			}
+			return element != NIL ? element : null;
+		} catch (InterruptedException e) {
+			throw interrupted();
+		}
+	}
+
+	// for a spawned function's result, the only value its channel ever gets
+	void offer(Object value) {
+		queue.offer(value != null ? value : NIL);
+	}
+
+	private static ScriptInterruptedException interrupted() {
+		Thread.currentThread().interrupt();
+		return new ScriptInterruptedException(ScriptInterruptedException.Reason.CANCELLED);
+	}
+
+	@Override
+	public String toString() {
+		return "<channel>";
+	}
+}
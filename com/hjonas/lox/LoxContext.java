@@ -0,0 +1,167 @@
+package com.hjonas.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// an isolated interpreter with its own globals, error state and output sinks.
+// a context runs one script at a time, separate contexts can run in parallel
+public final class LoxContext {
+	private final LoxEngine.Backend backend;
+	private final ErrorReporter reporter;
+	private final Interpreter interpreter;
+	private final VM vm;
+	private final NodeInterpreter nodes;
+	private boolean jit;
+
+	LoxContext(LoxEngine.Backend backend, boolean jit, PrintStream out, PrintStream err) {
+		this.backend = backend;
+		reporter = new ErrorReporter(out, err);
+		interpreter = new Interpreter(reporter, out);
+		this.jit = jit;
+		vm = backend == LoxEngine.Backend.VM ? new VM(interpreter) : null;
+		nodes = backend == LoxEngine.Backend.NODES ? new NodeInterpreter(interpreter) : null;
+	}
+
+	// scans, parses and resolves the source once. errors go to this context's sinks
+	// and leave null; the script itself can be run by any context
+	public CompiledScript compile(CharSequence source) {
+		return compile("<script>", source);
+	}
+
+	// the name shows up in flight recorder events for runs of the script
+	public synchronized CompiledScript compile(String name, CharSequence source) {
+		long begin = System.nanoTime();
+		Scanner scanner = new Scanner(source, reporter);
+		List<Stmt> statements = new Parser(scanner, reporter).parse();
+		long parsed = System.nanoTime();
+
+		if (reporter.hadError) {
+			return null;
+		}
+
+		new Resolver(reporter).resolve(statements);
+		long resolved = System.nanoTime();
+
+		if (reporter.hadError) {
+			return null;
+		}
+
+		statements = new Optimizer().optimize(statements);
+		long optimized = System.nanoTime();
+
+		LoxMetrics.INSTANCE.compiled(scanner.nanos, parsed - begin - scanner.nanos, resolved - parsed,
+				optimized - resolved);
+		return new CompiledScript(name, statements);
+	}
+
+	// globals defined by earlier runs stay visible to later ones
+	public synchronized void run(CompiledScript script) {
+		Profiler.ShadowStack shadowStack = interpreter.shadowStack;
+
+		int runtimeErrors = reporter.runtimeErrors();
+		LoxEvents.ScriptRun event = new LoxEvents.ScriptRun();
+		long begin = System.nanoTime();
+
+		if (shadowStack != null) {
+			shadowStack.enter();
+		}
+
+		Governor governor = interpreter.governor;
+		governor.begin();
+		interpreter.jit = jit;
+		boolean failed = false;
+
+		event.begin();
+		try {
+			if (vm != null) {
+				vm.interpret(script);
+			} else if (nodes != null) {
+				nodes.interpret(script);
+			} else {
+				interpreter.interpret(script.statements);
+			}
+		} catch (RuntimeError e) {
+			reporter.error(e.token, e.getMessage());
+			reporter.hadRuntimeError = true;
+			failed = true;
+		} catch (ScriptInterruptedException e) {
+			failed = true;
+			throw e;
+		} finally {
+			governor.end();
+
+			if (shadowStack != null) {
+				shadowStack.exit();
+			}
+
+			// counted after end(), which waits for the run's threads and the errors they report
+			failed |= reporter.runtimeErrors() != runtimeErrors;
+			if (event.shouldCommit()) {
+				event.script = script.name;
+				event.engine = backend.name().toLowerCase();
+				event.statements = interpreter.statements;
+				event.failed = failed;
+				event.commit();
+			}
+			LoxMetrics.INSTANCE.ran(interpreter, System.nanoTime() - begin, failed);
+		}
+	}
+
+	public synchronized void run(CharSequence source) {
+		CompiledScript script = compile(source);
+
+		if (script != null) {
+			run(script);
+		}
+	}
+
+	// samples the lox functions this context runs until the profiler is stopped. calls
+	// are only tracked by the tree-walking interpreter, so other engines can't profile,
+	// and the jit is turned off for the rest of the context's life since compiled code
+	// makes calls the stack can't see
+	public synchronized Profiler startProfiling(long interval, TimeUnit unit) {
+		if (backend != LoxEngine.Backend.AST) {
+			throw new IllegalStateException("profiling needs the ast engine, not " + backend.name().toLowerCase());
+		}
+		jit = false;
+		interpreter.shadowStack = new Profiler.ShadowStack();
+		return new Profiler(interpreter.shadowStack, interval, unit);
+	}
+
+	// the most loop iterations and calls a single run may make, 0 for no limit. a run
+	// that uses them up ends with a ScriptInterruptedException
+	public synchronized void limitFuel(long ticks) {
+		interpreter.governor.fuel = ticks;
+	}
+
+	// how long a single run may take, 0 for no limit
+	public synchronized void limitTime(long timeout, TimeUnit unit) {
+		interpreter.governor.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	// makes a run yield its thread every so many ticks. scripts on virtual threads then
+	// take turns on the carrier threads instead of one spinning script holding one
+	public synchronized void yieldEvery(int ticks) {
+		interpreter.governor.yieldEvery = ticks;
+	}
+
+	// stops the script this context is running, or the next one it starts. unlike the
+	// other methods it doesn't wait for the run to finish, so any thread can call it
+	public void cancel() {
+		interpreter.governor.cancel();
+	}
+
+	public synchronized boolean hadError() {
+		return reporter.hadError;
+	}
+
+	public synchronized boolean hadRuntimeError() {
+		return reporter.hadRuntimeError;
+	}
+
+	public synchronized void clearErrors() {
+		reporter.hadError = false;
+		reporter.hadRuntimeError = false;
+	}
+}
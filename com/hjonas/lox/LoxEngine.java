@@ -0,0 +1,33 @@
+package com.hjonas.lox;
+
+import java.io.PrintStream;
+
+// the settings contexts are created with. an engine holds no script state, so one
+// instance can hand out contexts to any number of threads
+public final class LoxEngine {
+	public enum Backend {
+		AST,
+		VM,
+		NODES
+	}
+
+	private final Backend backend;
+	private final boolean jit;
+
+	public LoxEngine() {
+		this(Backend.AST, false);
+	}
+
+	public LoxEngine(Backend backend, boolean jit) {
+		this.backend = backend;
+		this.jit = jit;
+	}
+
+	public LoxContext newContext() {
+		return newContext(System.out, System.err);
+	}
+
+	public LoxContext newContext(PrintStream out, PrintStream err) {
+		return new LoxContext(backend, jit, out, err);
+	}
+}
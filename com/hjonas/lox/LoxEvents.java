@@ -0,0 +1,66 @@
+package com.hjonas.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// flight recorder events for lox code. they are only created while a recording has
+// them enabled, so a process without one pays a flag check per call. function calls
+// are off by default, turn them on with lox.FunctionCall#enabled=true
+class LoxEvents {
+	@Name("lox.FunctionCall")
+	@Label("Lox Function Call")
+	@Description("A call of a lox function, including the tail calls it ends in")
+	@Category("Lox")
+	@StackTrace(false)
+	// one event per call is too much for an always-on recording, so it has to be asked for
+	@Enabled(false)
+	static class FunctionCall extends Event {
+		static final EventType TYPE = EventType.getEventType(FunctionCall.class);
+
+		@Label("Function")
+		String function;
+
+		@Label("Line")
+		int line;
+	}
+
+	@Name("lox.RuntimeError")
+	@Label("Lox Runtime Error")
+	@Category("Lox")
+	@StackTrace(false)
+	static class RuntimeError extends Event {
+		static final EventType TYPE = EventType.getEventType(RuntimeError.class);
+
+		@Label("Message")
+		String message;
+
+		@Label("Line")
+		int line;
+	}
+
+	@Name("lox.ScriptRun")
+	@Label("Lox Script Run")
+	@Category("Lox")
+	@StackTrace(false)
+	static class ScriptRun extends Event {
+		static final EventType TYPE = EventType.getEventType(ScriptRun.class);
+
+		@Label("Script")
+		String script;
+
+		@Label("Engine")
+		String engine;
+
+		@Label("Statements Executed")
+		long statements;
+
+		@Label("Failed")
+		boolean failed;
+	}
+}
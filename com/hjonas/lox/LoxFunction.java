@@ -7,6 +7,10 @@ import com.hjonas.lox.Stmt.Function;
 class LoxFunction implements LoxCallable {
 	final Function declaration;
 	private final Environment closure;
+	private Jit.Compiled compiled;
+	private boolean jitFailed;
+	private int calls;
+	private int deopts;
 
 	LoxFunction(Function declaration, Environment closure) {
 		this.declaration = declaration;
@@ -20,19 +24,115 @@ class LoxFunction implements LoxCallable {
 
 	@Override
 	public Object call(Interpreter interpreter, List<Object> arguments) {
-		final Environment env = new Environment(closure);
+		Environment frame = frame(interpreter);
 
-		for (int i = 0; i < declaration.params.size(); i++) {
-			env.define(declaration.params.get(i).lexeme, arguments.get(i));
+		for (int i = 0; i < arguments.size(); i++) {
+			frame.values[i] = arguments.get(i);
+		}
+
+		return invoke(interpreter, frame);
+	}
+
+	// a fresh frame for one call; the arguments go into its first slots
+	Environment frame(Interpreter interpreter) {
+		interpreter.environments++;
+		return new Environment(closure, declaration.frameSize);
+	}
+
+	// runs the call, and then any tail calls it ends in, as a loop on this java frame
+	Object invoke(Interpreter interpreter, Environment frame) {
+		Profiler.ShadowStack shadowStack = interpreter.shadowStack;
+		interpreter.governor.tick();
+		interpreter.calls++;
+
+		if (shadowStack == null && !LoxEvents.FunctionCall.TYPE.isEnabled()) {
+			return run(interpreter, frame, null);
 		}
+		return traced(interpreter, frame, shadowStack);
+	}
 
+	private Object traced(Interpreter interpreter, Environment frame, Profiler.ShadowStack shadowStack) {
+		LoxEvents.FunctionCall event = new LoxEvents.FunctionCall();
+		event.begin();
+
+		if (shadowStack != null) {
+			shadowStack.push(declaration);
+		}
 		try {
-			interpreter.executeBlock(((Stmt.Block) declaration.body).statements, env);
-		} catch (Return e) {
-			return e.value;
+			return run(interpreter, frame, shadowStack);
+		} finally {
+			if (shadowStack != null) {
+				shadowStack.pop();
+			}
+			if (event.shouldCommit()) {
+				event.function = declaration.name.lexeme;
+				event.line = declaration.name.line;
+				event.commit();
+			}
+		}
+	}
+
+	private Object run(Interpreter interpreter, Environment frame, Profiler.ShadowStack shadowStack) {
+		LoxFunction function = this;
+
+		while (true) {
+			Object result = function.execute(interpreter, frame);
+			LoxFunction callee = interpreter.tailCallee();
+
+			if (callee == null) {
+				return result;
+			}
+
+			// the frame can only be reused when no closure may have captured it
+			if (callee != function || function.declaration.hasClosures) {
+				frame = callee.frame(interpreter);
+			}
+			interpreter.enterTailCall(frame);
+			interpreter.governor.tick();
+			interpreter.calls++;
+			function = callee;
+
+			if (shadowStack != null) {
+				shadowStack.replace(callee.declaration);
+			}
+		}
+	}
+
+	private Object execute(Interpreter interpreter, Environment frame) {
+		if (interpreter.jit && !jitFailed) {
+			// read once, a function can be deoptimized by another thread in the meantime
+			Jit.Compiled current = compiled;
+
+			if (current == null && ++calls == Jit.THRESHOLD) {
+				current = Jit.compile(declaration);
+				compiled = current;
+				jitFailed = current == null;
+			}
+
+			if (current != null && canEnterCompiled(interpreter, current, frame.values)) {
+				try {
+					return current.code.call(interpreter.governor, frame.values);
+				} catch (Jit.Deopt e) {
+					if (++deopts == Jit.MAX_DEOPTS) {
+						compiled = null;
+						jitFailed = true;
+					}
+				}
+			}
+		}
+
+		return interpreter.executeFunction(((Stmt.Block) declaration.body).statements, frame);
+	}
+
+	private boolean canEnterCompiled(Interpreter interpreter, Jit.Compiled compiled, Object[] arguments) {
+		for (int i = 0; i < declaration.params.size(); i++) {
+			if (!(arguments[i] instanceof Double)) {
+				return false;
+			}
 		}
 
-		return null;
+		// recursive calls are bound directly, so the global must still name this function
+		return !compiled.recursive || interpreter.globals.find(declaration.name.symbol) == this;
 	}
 
 	@Override
@@ -0,0 +1,194 @@
+package com.hjonas.lox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// a hash table with open addressing and linear probing. keys match when
+// Interpreter.isEqual says so, which is why nil can't be a key. numbers hash their
+// bits and strings the hash java caches on them; the hash of every slot is kept
+// next to its key, so a probe only calls equals on a real candidate. spawned
+// threads can share a map, so every access holds its monitor
+final class LoxMap {
+	private static final Object REMOVED = new Object();
+
+	private Object[] keys = new Object[8];
+	private Object[] values = new Object[8];
+	private int[] hashes = new int[8];
+	private int size;
+	// live and removed slots; the table grows or is rebuilt when they fill 3/4 of it
+	private int used;
+
+	private static int hash(Object key) {
+		long bits = key instanceof Double ? Double.doubleToLongBits((double) key) : key.hashCode();
+		// small whole numbers only differ in their high bits, so the bits are mixed
+		// into the upper half of the product
+		return (int) ((bits * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	// the slot holding the key, or -1
+	private int find(Object key) {
+		if (key == null) {
+			return -1;
+		}
+
+		int hash = hash(key);
+		int mask = keys.length - 1;
+
+		for (int index = hash & mask;; index = (index + 1) & mask) {
+			Object candidate = keys[index];
+
+			if (candidate == null) {
+				return -1;
+			}
+			if (candidate != REMOVED && hashes[index] == hash && Interpreter.isEqual(candidate, key)) {
+				return index;
+			}
+		}
+	}
+
+	synchronized boolean has(Object key) {
+		return find(key) != -1;
+	}
+
+	synchronized Object get(Object key) {
+		int index = find(key);
+		return index != -1 ? values[index] : null;
+	}
+
+	// the caller has checked that the key isn't nil
+	synchronized void put(Object key, Object value) {
+		int hash = hash(key);
+		int mask = keys.length - 1;
+		int free = -1;
+
+		for (int index = hash & mask;; index = (index + 1) & mask) {
+			Object candidate = keys[index];
+
+			if (candidate == null) {
+				if (free == -1) {
+					free = index;
+					used++;
+				}
+				break;
+			}
+			if (candidate == REMOVED) {
+				if (free == -1) {
+					free = index;
+				}
+			} else if (hashes[index] == hash && Interpreter.isEqual(candidate, key)) {
+				values[index] = value;
+				return;
+			}
+		}
+
+		keys[free] = key;
+		values[free] = value;
+		hashes[free] = hash;
+		size++;
+
+		if (used * 4 >= keys.length * 3) {
+			rehash();
+		}
+	}
+
+	synchronized Object remove(Object key) {
+		int index = find(key);
+
+		if (index == -1) {
+			return null;
+		}
+
+		Object value = values[index];
+		keys[index] = REMOVED;
+		values[index] = null;
+		size--;
+		return value;
+	}
+
+	synchronized LoxArray keys() {
+		LoxArray result = new LoxArray(size);
+
+		for (Object key : keys) {
+			if (key != null && key != REMOVED) {
+				result.push(key);
+			}
+		}
+		return result;
+	}
+
+	// doubles the table unless most of the used slots were removed ones
+	private void rehash() {
+		Object[] oldKeys = keys;
+		Object[] oldValues = values;
+		int[] oldHashes = hashes;
+		int capacity = size * 2 >= oldKeys.length ? oldKeys.length * 2 : oldKeys.length;
+
+		keys = new Object[capacity];
+		values = new Object[capacity];
+		hashes = new int[capacity];
+		used = size;
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			Object key = oldKeys[i];
+
+			if (key == null || key == REMOVED) {
+				continue;
+			}
+
+			int index = oldHashes[i] & mask;
+			while (keys[index] != null) {
+				index = (index + 1) & mask;
+			}
+			keys[index] = key;
+			values[index] = oldValues[i];
+			hashes[index] = oldHashes[i];
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		append(text, Collections.newSetFromMap(new IdentityHashMap<>()));
+		return text.toString();
+	}
+
+	// a map that holds itself, directly or further down, prints as {...} there.
+	// the entries are copied out first, so no other map's monitor is taken while
+	// this one's is held
+	void append(StringBuilder text, Set<Object> open) {
+		if (!open.add(this)) {
+			text.append("{...}");
+			return;
+		}
+
+		Object[] entries;
+		synchronized (this) {
+			entries = new Object[size * 2];
+			int next = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != null && keys[i] != REMOVED) {
+					entries[next++] = keys[i];
+					entries[next++] = values[i];
+				}
+			}
+		}
+
+		text.append('{');
+		for (int i = 0; i < entries.length; i += 2) {
+			if (i > 0) {
+				text.append(", ");
+			}
+			Interpreter.stringify(text, entries[i], open);
+			text.append(": ");
+			Interpreter.stringify(text, entries[i + 1], open);
+		}
+		text.append('}');
+		open.remove(this);
+	}
+}
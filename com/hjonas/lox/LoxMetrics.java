@@ -0,0 +1,113 @@
+package com.hjonas.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// process wide totals, published as com.hjonas.lox:type=Metrics. interpreters count
+// in plain fields while they run and add them here once per run, so the hot paths
+// never touch shared memory
+public final class LoxMetrics implements LoxMetricsMBean {
+	static final LoxMetrics INSTANCE = new LoxMetrics();
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+					new ObjectName("com.hjonas.lox:type=Metrics"));
+		} catch (JMException | SecurityException e) {
+			// another copy of the interpreter in this process got there first
+		}
+	}
+
+	private final LongAdder scriptRuns = new LongAdder();
+	private final LongAdder runtimeErrors = new LongAdder();
+	private final LongAdder statements = new LongAdder();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder environments = new LongAdder();
+	private final LongAdder scanNanos = new LongAdder();
+	private final LongAdder parseNanos = new LongAdder();
+	private final LongAdder resolveNanos = new LongAdder();
+	private final LongAdder optimizeNanos = new LongAdder();
+	private final LongAdder executeNanos = new LongAdder();
+
+	private LoxMetrics() {
+	}
+
+	void compiled(long scan, long parse, long resolve, long optimize) {
+		scanNanos.add(scan);
+		parseNanos.add(parse);
+		resolveNanos.add(resolve);
+		optimizeNanos.add(optimize);
+	}
+
+	void ran(Interpreter interpreter, long nanos, boolean failed) {
+		scriptRuns.increment();
+		if (failed) {
+			runtimeErrors.increment();
+		}
+		executeNanos.add(nanos);
+		counted(interpreter);
+	}
+
+	// adds and resets the counters of an interpreter, also used for spawned threads
+	void counted(Interpreter interpreter) {
+		statements.add(interpreter.statements);
+		calls.add(interpreter.calls);
+		environments.add(interpreter.environments);
+		interpreter.statements = 0;
+		interpreter.calls = 0;
+		interpreter.environments = 0;
+	}
+
+	@Override
+	public long getScriptRuns() {
+		return scriptRuns.sum();
+	}
+
+	@Override
+	public long getRuntimeErrors() {
+		return runtimeErrors.sum();
+	}
+
+	@Override
+	public long getStatementsExecuted() {
+		return statements.sum();
+	}
+
+	@Override
+	public long getCallsMade() {
+		return calls.sum();
+	}
+
+	@Override
+	public long getEnvironmentsCreated() {
+		return environments.sum();
+	}
+
+	@Override
+	public long getScanNanos() {
+		return scanNanos.sum();
+	}
+
+	@Override
+	public long getParseNanos() {
+		return parseNanos.sum();
+	}
+
+	@Override
+	public long getResolveNanos() {
+		return resolveNanos.sum();
+	}
+
+	@Override
+	public long getOptimizeNanos() {
+		return optimizeNanos.sum();
+	}
+
+	@Override
+	public long getExecuteNanos() {
+		return executeNanos.sum();
+	}
+}
@@ -0,0 +1,23 @@
+package com.hjonas.lox;
+
+public interface LoxMetricsMBean {
+	long getScriptRuns();
+
+	long getRuntimeErrors();
+
+	long getStatementsExecuted();
+
+	long getCallsMade();
+
+	long getEnvironmentsCreated();
+
+	long getScanNanos();
+
+	long getParseNanos();
+
+	long getResolveNanos();
+
+	long getOptimizeNanos();
+
+	long getExecuteNanos();
+}
@@ -0,0 +1,61 @@
+package com.hjonas.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// a source file mapped straight into memory. the scanner only needs ascii to find
+// token boundaries, so characters are the raw bytes and just the lexemes that get
+// materialized are decoded as utf-8
+class MappedSource implements CharSequence {
+	private final ByteBuffer bytes;
+	private final int offset;
+	private final int length;
+
+	private MappedSource(ByteBuffer bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	static MappedSource map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too large to map.");
+			}
+			return new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), 0, (int) size);
+		}
+	}
+
+	// the raw bytes of this source, for hashing
+	ByteBuffer bytes() {
+		return bytes.slice(offset, length);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (bytes.get(offset + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new MappedSource(bytes, offset + start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		byte[] text = new byte[length];
+		bytes.get(offset, text);
+		return new String(text, StandardCharsets.UTF_8);
+	}
+}
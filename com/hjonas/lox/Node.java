@@ -0,0 +1,909 @@
+package com.hjonas.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+abstract class Node {
+	static final Object NORMAL = new Object();
+	static final Object BREAK = new Object();
+	static final Object CONTINUE = new Object();
+	static final Object NIL = new Object();
+
+	Node parent;
+
+	abstract Object execute(Environment env);
+
+	void replaceChild(Node child, Node replacement) {
+	}
+
+	<T extends Node> T adopt(T child) {
+		if (child != null) {
+			child.parent = this;
+		}
+		return child;
+	}
+
+	<T extends Node> T replace(T replacement) {
+		replacement.parent = parent;
+		parent.replaceChild(this, replacement);
+		return replacement;
+	}
+
+	static class Sequence extends Node {
+		final Node[] statements;
+
+		Sequence(List<Node> statements) {
+			this.statements = statements.toArray(new Node[0]);
+			for (Node statement : this.statements) {
+				adopt(statement);
+			}
+		}
+
+		@Override
+		Object execute(Environment env) {
+			for (Node statement : statements) {
+				Object completion = statement.execute(env);
+				if (completion != NORMAL) {
+					return completion;
+				}
+			}
+			return NORMAL;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			for (int i = 0; i < statements.length; i++) {
+				if (statements[i] == child) {
+					statements[i] = replacement;
+				}
+			}
+		}
+	}
+
+	static class Block extends Node {
+		final int frameSize;
+		final Sequence body;
+
+		Block(int frameSize, Sequence body) {
+			this.frameSize = frameSize;
+			this.body = adopt(body);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return body.execute(new Environment(env, frameSize));
+		}
+	}
+
+	static class ExpressionStmt extends Node {
+		Node expr;
+
+		ExpressionStmt(Node expr) {
+			this.expr = adopt(expr);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			expr.execute(env);
+			return NORMAL;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			expr = replacement;
+		}
+	}
+
+	static class Print extends Node {
+		final PrintStream out;
+		Node expr;
+
+		Print(PrintStream out, Node expr) {
+			this.out = out;
+			this.expr = adopt(expr);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			out.println(Interpreter.stringify(expr.execute(env)));
+			return NORMAL;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			expr = replacement;
+		}
+	}
+
+	static class DefineLocal extends Node {
+		final int slot;
+		Node value;
+
+		DefineLocal(int slot, Node value) {
+			this.slot = slot;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			env.values[slot] = value.execute(env);
+			return NORMAL;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			value = replacement;
+		}
+	}
+
+	static class DefineGlobal extends Node {
+		final GlobalCell cell;
+		Node value;
+
+		DefineGlobal(GlobalCell cell, Node value) {
+			this.cell = cell;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			cell.value = value.execute(env);
+			return NORMAL;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			value = replacement;
+		}
+	}
+
+	static class If extends Node {
+		Node condition;
+		final Node thenBranch;
+		final Node elseBranch;
+
+		If(Node condition, Node thenBranch, Node elseBranch) {
+			this.condition = adopt(condition);
+			this.thenBranch = adopt(thenBranch);
+			this.elseBranch = adopt(elseBranch);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			if (Interpreter.isTruthy(condition.execute(env))) {
+				return thenBranch.execute(env);
+			} else if (elseBranch != null) {
+				return elseBranch.execute(env);
+			}
+			return NORMAL;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			condition = replacement;
+		}
+	}
+
+	static class While extends Node {
+		final Governor governor;
+		Node condition;
+		final Node body;
+		Node increment;
+
+		While(Governor governor, Node condition, Node body, Node increment) {
+			this.governor = governor;
+			this.condition = adopt(condition);
+			this.body = adopt(body);
+			this.increment = adopt(increment);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			while (Interpreter.isTruthy(condition.execute(env))) {
+				governor.tick();
+				Object completion = body.execute(env);
+				if (completion == BREAK) {
+					break;
+				}
+				if (completion != NORMAL && completion != CONTINUE) {
+					return completion;
+				}
+				if (increment != null) {
+					increment.execute(env);
+				}
+			}
+			return NORMAL;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			if (child == increment) {
+				increment = replacement;
+			} else {
+				condition = replacement;
+			}
+		}
+	}
+
+	static class Break extends Node {
+		@Override
+		Object execute(Environment env) {
+			return BREAK;
+		}
+	}
+
+	static class Continue extends Node {
+		@Override
+		Object execute(Environment env) {
+			return CONTINUE;
+		}
+	}
+
+	static class Return extends Node {
+		Node value;
+
+		Return(Node value) {
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object result = value.execute(env);
+			return result == null ? NIL : result;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			value = replacement;
+		}
+	}
+
+	static class FunctionDecl extends Node {
+		final NodeFunction.Template template;
+		final GlobalCell cell;
+		final int slot;
+
+		FunctionDecl(NodeFunction.Template template, GlobalCell cell, int slot) {
+			this.template = template;
+			this.cell = cell;
+			this.slot = slot;
+		}
+
+		@Override
+		Object execute(Environment env) {
+			NodeFunction function = new NodeFunction(template, env);
+
+			if (slot == -1) {
+				cell.value = function;
+			} else {
+				env.values[slot] = function;
+			}
+			return NORMAL;
+		}
+	}
+
+	static class Literal extends Node {
+		final Object value;
+
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return value;
+		}
+	}
+
+	static class Local extends Node {
+		final int slot;
+
+		Local(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return env.values[slot];
+		}
+	}
+
+	static class EnclosingLocal extends Node {
+		final int depth;
+		final int slot;
+
+		EnclosingLocal(int depth, int slot) {
+			this.depth = depth;
+			this.slot = slot;
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return env.getAt(depth, slot);
+		}
+	}
+
+	static class Global extends Node {
+		final GlobalCell cell;
+		final Token name;
+
+		Global(GlobalCell cell, Token name) {
+			this.cell = cell;
+			this.name = name;
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return cell.get(name);
+		}
+	}
+
+	static class AssignLocal extends Node {
+		final int depth;
+		final int slot;
+		Node value;
+
+		AssignLocal(int depth, int slot, Node value) {
+			this.depth = depth;
+			this.slot = slot;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object result = value.execute(env);
+			env.assignAt(depth, slot, result);
+			return result;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			value = replacement;
+		}
+	}
+
+	static class AssignGlobal extends Node {
+		final GlobalCell cell;
+		final Token name;
+		Node value;
+
+		AssignGlobal(GlobalCell cell, Token name, Node value) {
+			this.cell = cell;
+			this.name = name;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return cell.assign(name, value.execute(env));
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			value = replacement;
+		}
+	}
+
+	abstract static class UnaryNode extends Node {
+		final Token operator;
+		Node right;
+
+		UnaryNode(Token operator, Node right) {
+			this.operator = operator;
+			this.right = adopt(right);
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			right = replacement;
+		}
+	}
+
+	static class Negate extends UnaryNode {
+		Negate(Token operator, Node right) {
+			super(operator, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object value = right.execute(env);
+			if (value instanceof Double) {
+				return -(double) value;
+			}
+			throw new RuntimeError(operator, "operand must be a number.");
+		}
+	}
+
+	static class Not extends UnaryNode {
+		Not(Token operator, Node right) {
+			super(operator, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object value = right.execute(env);
+			if (value instanceof Double) {
+				return !Interpreter.isTruthy(value);
+			}
+			throw new RuntimeError(operator, "operand must be a number.");
+		}
+	}
+
+	abstract static class BinaryNode extends Node {
+		final Token operator;
+		Node left;
+		Node right;
+
+		BinaryNode(Token operator, Node left, Node right) {
+			this.operator = operator;
+			this.left = adopt(left);
+			this.right = adopt(right);
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			if (left == child) {
+				left = replacement;
+			}
+			if (right == child) {
+				right = replacement;
+			}
+		}
+
+		RuntimeError numbersExpected() {
+			return new RuntimeError(operator, "operands must be a number.");
+		}
+	}
+
+	static class Or extends BinaryNode {
+		Or(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object value = left.execute(env);
+			if (Interpreter.isTruthy(value)) {
+				return value;
+			}
+			return right.execute(env);
+		}
+	}
+
+	static class And extends BinaryNode {
+		And(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object value = left.execute(env);
+			if (!Interpreter.isTruthy(value)) {
+				return value;
+			}
+			return right.execute(env);
+		}
+	}
+
+	static class Add extends BinaryNode {
+		Add(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+
+			if (l instanceof Double && r instanceof Double) {
+				replace(new AddNumbers(operator, left, right));
+			} else if (l instanceof String && r instanceof String) {
+				replace(new AddStrings(operator, left, right));
+			} else {
+				replace(new AddGeneric(operator, left, right));
+			}
+			return AddGeneric.add(operator, l, r);
+		}
+	}
+
+	static class AddNumbers extends BinaryNode {
+		AddNumbers(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l + (double) r;
+			}
+
+			replace(new AddGeneric(operator, left, right));
+			return AddGeneric.add(operator, l, r);
+		}
+	}
+
+	static class AddStrings extends BinaryNode {
+		AddStrings(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+
+			if (l instanceof String && r instanceof String) {
+				return ((String) l).concat((String) r);
+			}
+
+			replace(new AddGeneric(operator, left, right));
+			return AddGeneric.add(operator, l, r);
+		}
+	}
+
+	static class AddGeneric extends BinaryNode {
+		AddGeneric(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return add(operator, left.execute(env), right.execute(env));
+		}
+
+		static Object add(Token operator, Object l, Object r) {
+			if (l instanceof String || r instanceof String) {
+				return Interpreter.stringify(l) + Interpreter.stringify(r);
+			} else if (l instanceof Double && r instanceof Double) {
+				return (double) l + (double) r;
+			}
+			throw new RuntimeError(operator, "operands must be two strings or two numbers");
+		}
+	}
+
+	static class Subtract extends BinaryNode {
+		Subtract(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l - (double) r;
+			}
+			throw numbersExpected();
+		}
+	}
+
+	static class Multiply extends BinaryNode {
+		Multiply(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l * (double) r;
+			}
+			throw numbersExpected();
+		}
+	}
+
+	static class Divide extends BinaryNode {
+		Divide(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+			if (r instanceof Double && (double) r == 0) {
+				throw new RuntimeError(operator, "division by zero.");
+			}
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l / (double) r;
+			}
+			throw numbersExpected();
+		}
+	}
+
+	static class Greater extends BinaryNode {
+		Greater(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l > (double) r;
+			}
+			throw numbersExpected();
+		}
+	}
+
+	static class GreaterEqual extends BinaryNode {
+		GreaterEqual(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l >= (double) r;
+			}
+			throw numbersExpected();
+		}
+	}
+
+	static class Less extends BinaryNode {
+		Less(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l < (double) r;
+			}
+			throw numbersExpected();
+		}
+	}
+
+	static class LessEqual extends BinaryNode {
+		LessEqual(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object l = left.execute(env);
+			Object r = right.execute(env);
+			if (l instanceof Double && r instanceof Double) {
+				return (double) l <= (double) r;
+			}
+			throw numbersExpected();
+		}
+	}
+
+	static class Equal extends BinaryNode {
+		Equal(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return Interpreter.isEqual(left.execute(env), right.execute(env));
+		}
+	}
+
+	static class NotEqual extends BinaryNode {
+		NotEqual(Token operator, Node left, Node right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return !Interpreter.isEqual(left.execute(env), right.execute(env));
+		}
+	}
+
+	static class Call extends Node {
+		final Interpreter interpreter;
+		final Token paren;
+		Node callee;
+		final Node[] arguments;
+
+		Call(Interpreter interpreter, Token paren, Node callee, List<Node> arguments) {
+			this.interpreter = interpreter;
+			this.paren = paren;
+			this.callee = adopt(callee);
+			this.arguments = arguments.toArray(new Node[0]);
+			for (Node argument : this.arguments) {
+				adopt(argument);
+			}
+		}
+
+		@Override
+		Object execute(Environment env) {
+			return call(callee.execute(env), env);
+		}
+
+		Object call(Object function, Environment env) {
+			interpreter.governor.tick();
+
+			if (function instanceof NodeFunction
+					&& ((NodeFunction) function).template.arity == arguments.length) {
+				NodeFunction target = (NodeFunction) function;
+				Environment frame = new Environment(target.closure, target.template.frameSize);
+
+				for (int i = 0; i < arguments.length; i++) {
+					frame.values[i] = arguments[i].execute(env);
+				}
+
+				try {
+					return target.invoke(frame);
+				} catch (StackOverflowError e) {
+					throw new RuntimeError(paren, "Stack overflow.");
+				}
+			}
+
+			List<Object> args = new ArrayList<>(arguments.length);
+			for (Node argument : arguments) {
+				args.add(argument.execute(env));
+			}
+
+			if (!(function instanceof LoxCallable)) {
+				throw new RuntimeError(paren, "Can only call functions and classes.");
+			}
+
+			LoxCallable callable = (LoxCallable) function;
+
+			if (args.size() != callable.arity()) {
+				throw new RuntimeError(paren, "Expected " + callable.arity()
+						+ " arguments but got " + args.size() + ".");
+			}
+
+			return interpreter.callNative(callable, paren, args);
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			if (callee == child) {
+				callee = replacement;
+			}
+			for (int i = 0; i < arguments.length; i++) {
+				if (arguments[i] == child) {
+					arguments[i] = replacement;
+				}
+			}
+		}
+	}
+
+	// a return whose value is a call. a lox function callee isn't called here: the
+	// function returns it as its completion and NodeFunction.invoke runs it next
+	static class TailCall extends Call {
+		TailCall(Interpreter interpreter, Token paren, Node callee, List<Node> arguments) {
+			super(interpreter, paren, callee, arguments);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			Object function = callee.execute(env);
+
+			if (function instanceof NodeFunction
+					&& ((NodeFunction) function).template.arity == arguments.length) {
+				interpreter.governor.tick();
+				NodeFunction target = (NodeFunction) function;
+				Environment frame = new Environment(target.closure, target.template.frameSize);
+
+				for (int i = 0; i < arguments.length; i++) {
+					frame.values[i] = arguments[i].execute(env);
+				}
+				return new Pending(target, frame);
+			}
+
+			Object result = call(function, env);
+			return result == null ? NIL : result;
+		}
+
+		static final class Pending {
+			final NodeFunction function;
+			final Environment frame;
+
+			Pending(NodeFunction function, Environment frame) {
+				this.function = function;
+				this.frame = frame;
+			}
+		}
+	}
+
+	static class ArrayLiteral extends Node {
+		final Node[] elements;
+
+		ArrayLiteral(List<Node> elements) {
+			this.elements = elements.toArray(new Node[0]);
+			for (Node element : this.elements) {
+				adopt(element);
+			}
+		}
+
+		@Override
+		Object execute(Environment env) {
+			LoxArray array = new LoxArray(elements.length);
+
+			for (Node element : elements) {
+				array.push(element.execute(env));
+			}
+			return array;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			for (int i = 0; i < elements.length; i++) {
+				if (elements[i] == child) {
+					elements[i] = replacement;
+				}
+			}
+		}
+	}
+
+	static class Index extends Node {
+		final Token bracket;
+		Node array;
+		Node index;
+
+		Index(Token bracket, Node array, Node index) {
+			this.bracket = bracket;
+			this.array = adopt(array);
+			this.index = adopt(index);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			LoxArray target = Interpreter.array(bracket, array.execute(env));
+			return Interpreter.get(bracket, target, index.execute(env));
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			if (array == child) {
+				array = replacement;
+			}
+			if (index == child) {
+				index = replacement;
+			}
+		}
+	}
+
+	static class SetIndex extends Node {
+		final Token bracket;
+		Node array;
+		Node index;
+		Node value;
+
+		SetIndex(Token bracket, Node array, Node index, Node value) {
+			this.bracket = bracket;
+			this.array = adopt(array);
+			this.index = adopt(index);
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment env) {
+			LoxArray target = Interpreter.array(bracket, array.execute(env));
+			Object position = index.execute(env);
+			Object result = value.execute(env);
+
+			Interpreter.set(bracket, target, position, result);
+			return result;
+		}
+
+		@Override
+		void replaceChild(Node child, Node replacement) {
+			if (array == child) {
+				array = replacement;
+			}
+			if (index == child) {
+				index = replacement;
+			}
+			if (value == child) {
+				value = replacement;
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.hjonas.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hjonas.lox.Expr.ArrayLiteral;
+import com.hjonas.lox.Expr.Assign;
+import com.hjonas.lox.Expr.Binary;
+import com.hjonas.lox.Expr.Call;
+import com.hjonas.lox.Expr.Grouping;
+import com.hjonas.lox.Expr.Index;
+import com.hjonas.lox.Expr.Literal;
+import com.hjonas.lox.Expr.SetIndex;
+import com.hjonas.lox.Expr.Unary;
+import com.hjonas.lox.Expr.VariableExpr;
+import com.hjonas.lox.Stmt.Block;
+import com.hjonas.lox.Stmt.BreakStmt;
+import com.hjonas.lox.Stmt.ContinueStmt;
+import com.hjonas.lox.Stmt.Expression;
+import com.hjonas.lox.Stmt.Function;
+import com.hjonas.lox.Stmt.IfStmt;
+import com.hjonas.lox.Stmt.Print;
+import com.hjonas.lox.Stmt.ReturnStmt;
+import com.hjonas.lox.Stmt.VariableStmt;
+import com.hjonas.lox.Stmt.WhileStmt;
+
+class NodeCompiler implements Expr.Visitor<Node>, Stmt.Visitor<Node> {
+	private final Interpreter interpreter;
+	private final Environment globals;
+
+	NodeCompiler(Interpreter interpreter) {
+		this.interpreter = interpreter;
+		this.globals = interpreter.globals;
+	}
+
+	Node.Sequence compile(List<Stmt> statements) {
+		List<Node> nodes = new ArrayList<>(statements.size());
+
+		for (Stmt statement : statements) {
+			nodes.add(statement.accept(this));
+		}
+
+		return new Node.Sequence(nodes);
+	}
+
+	private Node compile(Stmt statement) {
+		return statement.accept(this);
+	}
+
+	private Node compile(Expr expr) {
+		return expr.accept(this);
+	}
+
+	@Override
+	public Node visitUnary(Unary unary) {
+		Node right = compile(unary.right);
+
+		switch (unary.operator.type) {
+			case MINUS: {
+				return new Node.Negate(unary.operator, right);
+			}
+			case BANG: {
+				return new Node.Not(unary.operator, right);
+			}
+		}
+
+		return new Node.Literal(null);
+	}
+
+	@Override
+	public Node visitBinary(Binary binary) {
+		Token operator = binary.operator;
+		Node left = compile(binary.left);
+		Node right = compile(binary.right);
+
+		switch (operator.type) {
+			case OR: {
+				return new Node.Or(operator, left, right);
+			}
+			case AND: {
+				return new Node.And(operator, left, right);
+			}
+			case PLUS: {
+				return new Node.Add(operator, left, right);
+			}
+			case MINUS: {
+				return new Node.Subtract(operator, left, right);
+			}
+			case STAR: {
+				return new Node.Multiply(operator, left, right);
+			}
+			case SLASH: {
+				return new Node.Divide(operator, left, right);
+			}
+			case GREATER: {
+				return new Node.Greater(operator, left, right);
+			}
+			case GREATER_EQUAL: {
+				return new Node.GreaterEqual(operator, left, right);
+			}
+			case LESS: {
+				return new Node.Less(operator, left, right);
+			}
+			case LESS_EQUAL: {
+				return new Node.LessEqual(operator, left, right);
+			}
+			case EQUAL_EQUAL: {
+				return new Node.Equal(operator, left, right);
+			}
+			case BANG_EQUAL: {
+				return new Node.NotEqual(operator, left, right);
+			}
+		}
+
+		return new Node.Literal(null);
+	}
+
+	@Override
+	public Node visitGroupping(Grouping grouping) {
+		return compile(grouping.expr);
+	}
+
+	@Override
+	public Node visitLiteral(Literal literal) {
+		return new Node.Literal(literal.value);
+	}
+
+	@Override
+	public Node visitVariableExpr(VariableExpr variable) {
+		if (variable.depth == -1) {
+			return new Node.Global(globals.cell(variable.name.symbol), variable.name);
+		} else if (variable.depth == 0) {
+			return new Node.Local(variable.slot);
+		} else {
+			return new Node.EnclosingLocal(variable.depth, variable.slot);
+		}
+	}
+
+	@Override
+	public Node visitAssign(Assign assign) {
+		Node value = compile(assign.value);
+
+		if (assign.depth == -1) {
+			return new Node.AssignGlobal(globals.cell(assign.name.symbol), assign.name, value);
+		}
+		return new Node.AssignLocal(assign.depth, assign.slot, value);
+	}
+
+	@Override
+	public Node visitCall(Call call) {
+		List<Node> arguments = new ArrayList<>(call.arguments.size());
+
+		for (Expr argument : call.arguments) {
+			arguments.add(compile(argument));
+		}
+
+		return new Node.Call(interpreter, call.paren, compile(call.callee), arguments);
+	}
+
+	@Override
+	public Node visitArrayLiteral(ArrayLiteral array) {
+		List<Node> elements = new ArrayList<>(array.elements.size());
+
+		for (Expr element : array.elements) {
+			elements.add(compile(element));
+		}
+
+		return new Node.ArrayLiteral(elements);
+	}
+
+	@Override
+	public Node visitIndex(Index index) {
+		return new Node.Index(index.bracket, compile(index.array), compile(index.index));
+	}
+
+	@Override
+	public Node visitSetIndex(SetIndex setIndex) {
+		return new Node.SetIndex(setIndex.bracket, compile(setIndex.array), compile(setIndex.index),
+				compile(setIndex.value));
+	}
+
+	@Override
+	public Node visitExpression(Expression expr) {
+		return new Node.ExpressionStmt(compile(expr.expr));
+	}
+
+	@Override
+	public Node visitPrint(Print print) {
+		return new Node.Print(interpreter.out, compile(print.expr));
+	}
+
+	@Override
+	public Node visitVariableStmt(VariableStmt var) {
+		Node value = var.initializer != null ? compile(var.initializer) : new Node.Literal(null);
+
+		if (var.slot == -1) {
+			return new Node.DefineGlobal(globals.cell(var.name.symbol), value);
+		}
+		return new Node.DefineLocal(var.slot, value);
+	}
+
+	@Override
+	public Node visitBlock(Block block) {
+		if (block.flattened) {
+			return compile(block.statements);
+		}
+		return new Node.Block(block.frameSize, compile(block.statements));
+	}
+
+	@Override
+	public Node visitIfStmt(IfStmt ifStmt) {
+		Node elseBranch = ifStmt.elseBranch != null ? compile(ifStmt.elseBranch) : null;
+		return new Node.If(compile(ifStmt.condition), compile(ifStmt.thenBranch), elseBranch);
+	}
+
+	@Override
+	public Node visitWhileStmt(WhileStmt whileStmt) {
+		Node increment = whileStmt.increment != null ? compile(whileStmt.increment) : null;
+		return new Node.While(interpreter.governor, compile(whileStmt.condition), compile(whileStmt.body), increment);
+	}
+
+	@Override
+	public Node visitBreakStmt(BreakStmt breakStmt) {
+		return new Node.Break();
+	}
+
+	@Override
+	public Node visitContinueStmt(ContinueStmt continueStmt) {
+		return new Node.Continue();
+	}
+
+	@Override
+	public Node visitFunctionStmt(Function function) {
+		Node.Sequence body = compile(((Block) function.body).statements);
+
+		NodeFunction.Template template = new NodeFunction.Template(function.name.lexeme,
+				function.params.size(), function.frameSize, body);
+		GlobalCell cell = function.slot == -1 ? globals.cell(function.name.symbol) : null;
+		return new Node.FunctionDecl(template, cell, function.slot);
+	}
+
+	@Override
+	public Node visitReturnStmt(ReturnStmt returnStmt) {
+		if (returnStmt.tailCall) {
+			Call call = (Call) returnStmt.value;
+			List<Node> arguments = new ArrayList<>(call.arguments.size());
+
+			for (Expr argument : call.arguments) {
+				arguments.add(compile(argument));
+			}
+			return new Node.TailCall(interpreter, call.paren, compile(call.callee), arguments);
+		}
+
+		Node value = returnStmt.value != null ? compile(returnStmt.value) : new Node.Literal(null);
+		return new Node.Return(value);
+	}
+}
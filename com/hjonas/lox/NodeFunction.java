@@ -0,0 +1,63 @@
+package com.hjonas.lox;
+
+import java.util.List;
+
+class NodeFunction implements LoxCallable {
+	static class Template {
+		final String name;
+		final int arity;
+		final int frameSize;
+		final Node.Sequence body;
+
+		Template(String name, int arity, int frameSize, Node.Sequence body) {
+			this.name = name;
+			this.arity = arity;
+			this.frameSize = frameSize;
+			this.body = body;
+		}
+	}
+
+	final Template template;
+	final Environment closure;
+
+	NodeFunction(Template template, Environment closure) {
+		this.template = template;
+		this.closure = closure;
+	}
+
+	Object invoke(Environment frame) {
+		Object completion = template.body.execute(frame);
+
+		// tail calls run one after another on this java frame
+		while (completion instanceof Node.TailCall.Pending) {
+			Node.TailCall.Pending next = (Node.TailCall.Pending) completion;
+			completion = next.function.template.body.execute(next.frame);
+		}
+
+		if (completion == Node.NORMAL || completion == Node.NIL) {
+			return null;
+		}
+		return completion;
+	}
+
+	@Override
+	public int arity() {
+		return template.arity;
+	}
+
+	@Override
+	public Object call(Interpreter interpreter, List<Object> arguments) {
+		Environment frame = new Environment(closure, template.frameSize);
+
+		for (int i = 0; i < arguments.size(); i++) {
+			frame.define(i, arguments.get(i));
+		}
+
+		return invoke(frame);
+	}
+
+	@Override
+	public String toString() {
+		return "<fn " + template.name + ">";
+	}
+}
@@ -0,0 +1,31 @@
+package com.hjonas.lox;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+class NodeInterpreter {
+	private final Interpreter interpreter;
+	// node trees hold the global cells and the interpreter of this context, so each
+	// context keeps its own, for as long as the script is in use. the context runs
+	// one script at a time, so the map needs no lock
+	private final Map<CompiledScript, Node.Sequence> programs = new WeakHashMap<>();
+
+	NodeInterpreter(Interpreter interpreter) {
+		this.interpreter = interpreter;
+	}
+
+	void interpret(CompiledScript script) {
+		Node.Sequence program = programs.get(script);
+
+		if (program == null) {
+			program = new NodeCompiler(interpreter).compile(script.statements);
+			programs.put(script, program);
+		}
+
+		try {
+			program.execute(interpreter.globals);
+		} catch (RuntimeError e) {
+			interpreter.reporter.runtimeError(e);
+		}
+	}
+}
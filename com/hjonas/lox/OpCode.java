@@ -0,0 +1,51 @@
+package com.hjonas.lox;
+
+final class OpCode {
+	static final byte CONSTANT = 0;
+	static final byte NIL = 1;
+	static final byte TRUE = 2;
+	static final byte FALSE = 3;
+	static final byte POP = 4;
+
+	static final byte GET_LOCAL = 5;
+	static final byte SET_LOCAL = 6;
+	static final byte DEFINE_LOCAL = 7;
+	static final byte GET_GLOBAL = 8;
+	static final byte SET_GLOBAL = 9;
+	static final byte DEFINE_GLOBAL = 10;
+
+	static final byte ADD = 11;
+	static final byte SUBTRACT = 12;
+	static final byte MULTIPLY = 13;
+	static final byte DIVIDE = 14;
+	static final byte NEGATE = 15;
+	static final byte NOT = 16;
+	static final byte EQUAL = 17;
+	static final byte NOT_EQUAL = 18;
+	static final byte GREATER = 19;
+	static final byte GREATER_EQUAL = 20;
+	static final byte LESS = 21;
+	static final byte LESS_EQUAL = 22;
+
+	static final byte JUMP = 23;
+	static final byte JUMP_IF_FALSE = 24;
+	static final byte LOOP = 25;
+
+	static final byte PUSH_SCOPE = 26;
+	static final byte POP_SCOPE = 27;
+
+	static final byte CLOSURE = 28;
+	static final byte CALL = 29;
+	static final byte RETURN = 30;
+	static final byte PRINT = 31;
+
+	static final byte ARRAY = 32;
+	static final byte GET_INDEX = 33;
+	static final byte SET_INDEX = 34;
+
+	// a call from a return, which a lox function callee replaces the caller in
+	static final byte TAIL_CALL = 35;
+
+	private OpCode() {
+	}
+}
@@ -0,0 +1,399 @@
+package com.hjonas.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.hjonas.lox.Expr.ArrayLiteral;
+import com.hjonas.lox.Expr.Assign;
+import com.hjonas.lox.Expr.Binary;
+import com.hjonas.lox.Expr.Call;
+import com.hjonas.lox.Expr.Grouping;
+import com.hjonas.lox.Expr.Index;
+import com.hjonas.lox.Expr.Literal;
+import com.hjonas.lox.Expr.SetIndex;
+import com.hjonas.lox.Expr.Unary;
+import com.hjonas.lox.Expr.VariableExpr;
+import com.hjonas.lox.Stmt.Block;
+import com.hjonas.lox.Stmt.BreakStmt;
+import com.hjonas.lox.Stmt.ContinueStmt;
+import com.hjonas.lox.Stmt.Expression;
+import com.hjonas.lox.Stmt.Function;
+import com.hjonas.lox.Stmt.IfStmt;
+import com.hjonas.lox.Stmt.Print;
+import com.hjonas.lox.Stmt.ReturnStmt;
+import com.hjonas.lox.Stmt.VariableStmt;
+import com.hjonas.lox.Stmt.WhileStmt;
+
+// rewrites a resolved tree: folds constants, propagates locals that are only ever
+// bound to a literal and drops code that can't run or has no effect.
+// expressions that would fail at run time are left alone so the error still happens
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+	private final List<VariableStmt[]> scopes = new ArrayList<>();
+	private final Set<VariableStmt> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Map<VariableStmt, Literal> constants = new IdentityHashMap<>();
+	private boolean collecting;
+
+	List<Stmt> optimize(List<Stmt> statements) {
+		// the first pass only records which locals are assigned after their declaration
+		collecting = true;
+		optimizeAll(statements);
+		collecting = false;
+		return optimizeAll(statements);
+	}
+
+	private List<Stmt> optimizeAll(List<Stmt> statements) {
+		List<Stmt> optimized = new ArrayList<>();
+
+		for (Stmt statement : statements) {
+			Stmt result = optimize(statement);
+
+			if (result == null || (result instanceof Expression && isPure(((Expression) result).expr))) {
+				continue;
+			}
+
+			optimized.add(result);
+
+			if (result instanceof BreakStmt || result instanceof ContinueStmt || result instanceof ReturnStmt) {
+				break;
+			}
+		}
+
+		return optimized;
+	}
+
+	private Stmt optimize(Stmt statement) {
+		return statement.accept(this);
+	}
+
+	private Stmt optimizeBranch(Stmt statement) {
+		Stmt optimized = optimize(statement);
+		if (optimized != null) {
+			return optimized;
+		}
+
+		Block empty = new Block(new ArrayList<>());
+		empty.flattened = true;
+		return empty;
+	}
+
+	private Expr optimize(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private VariableStmt declaration(int depth, int slot) {
+		if (depth == -1) {
+			return null;
+		}
+		return scopes.get(scopes.size() - 1 - depth)[slot];
+	}
+
+	private boolean isPure(Expr expr) {
+		if (expr instanceof Literal) {
+			return true;
+		}
+		if (expr instanceof VariableExpr) {
+			return ((VariableExpr) expr).depth != -1;
+		}
+		if (expr instanceof Grouping) {
+			return isPure(((Grouping) expr).expr);
+		}
+		if (expr instanceof Binary) {
+			switch (((Binary) expr).operator.type) {
+				case OR:
+				case AND:
+				case EQUAL_EQUAL:
+				case BANG_EQUAL: {
+					return isPure(((Binary) expr).left) && isPure(((Binary) expr).right);
+				}
+			}
+		}
+		return false;
+	}
+
+	private Expr fold(Token operator, Object left, Object right) {
+		if (operator.type == TokenType.EQUAL_EQUAL) {
+			return new Literal(Interpreter.isEqual(left, right));
+		}
+		if (operator.type == TokenType.BANG_EQUAL) {
+			return new Literal(!Interpreter.isEqual(left, right));
+		}
+
+		if (operator.type == TokenType.PLUS && (left instanceof String || right instanceof String)) {
+			return new Literal(Interpreter.stringify(left) + Interpreter.stringify(right));
+		}
+
+		if (!(left instanceof Double) || !(right instanceof Double)) {
+			return null;
+		}
+
+		double a = (double) left;
+		double b = (double) right;
+
+		switch (operator.type) {
+			case PLUS: {
+				return new Literal(a + b);
+			}
+			case MINUS: {
+				return new Literal(a - b);
+			}
+			case STAR: {
+				return new Literal(a * b);
+			}
+			case SLASH: {
+				return b == 0 ? null : new Literal(a / b);
+			}
+			case GREATER: {
+				return new Literal(a > b);
+			}
+			case GREATER_EQUAL: {
+				return new Literal(a >= b);
+			}
+			case LESS: {
+				return new Literal(a < b);
+			}
+			case LESS_EQUAL: {
+				return new Literal(a <= b);
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public Expr visitUnary(Unary unary) {
+		Expr right = optimize(unary.right);
+
+		if (right instanceof Literal && ((Literal) right).value instanceof Double) {
+			double value = (double) ((Literal) right).value;
+
+			switch (unary.operator.type) {
+				case MINUS: {
+					return new Literal(-value);
+				}
+				case BANG: {
+					return new Literal(false);
+				}
+			}
+		}
+
+		return new Unary(unary.operator, right);
+	}
+
+	@Override
+	public Expr visitBinary(Binary binary) {
+		Expr left = optimize(binary.left);
+
+		if (left instanceof Literal) {
+			Object value = ((Literal) left).value;
+
+			switch (binary.operator.type) {
+				case OR: {
+					return Interpreter.isTruthy(value) ? left : optimize(binary.right);
+				}
+				case AND: {
+					return Interpreter.isTruthy(value) ? optimize(binary.right) : left;
+				}
+			}
+		}
+
+		Expr right = optimize(binary.right);
+
+		if (left instanceof Literal && right instanceof Literal) {
+			Expr folded = fold(binary.operator, ((Literal) left).value, ((Literal) right).value);
+
+			if (folded != null) {
+				return folded;
+			}
+		}
+
+		Binary optimized = new Binary(binary.operator, left, right);
+		optimized.numeric = binary.numeric;
+		return optimized;
+	}
+
+	@Override
+	public Expr visitGroupping(Grouping grouping) {
+		Expr expr = optimize(grouping.expr);
+
+		if (expr instanceof Literal) {
+			return expr;
+		}
+		return new Grouping(expr);
+	}
+
+	@Override
+	public Expr visitLiteral(Literal literal) {
+		return literal;
+	}
+
+	@Override
+	public Expr visitVariableExpr(VariableExpr variable) {
+		Literal constant = constants.get(declaration(variable.depth, variable.slot));
+
+		if (constant != null) {
+			return constant;
+		}
+		return variable;
+	}
+
+	@Override
+	public Expr visitAssign(Assign assign) {
+		if (collecting) {
+			VariableStmt declaration = declaration(assign.depth, assign.slot);
+
+			if (declaration != null) {
+				assigned.add(declaration);
+			}
+		}
+
+		Assign optimized = new Assign(assign.name, optimize(assign.value));
+		optimized.depth = assign.depth;
+		optimized.slot = assign.slot;
+		return optimized;
+	}
+
+	@Override
+	public Expr visitCall(Call call) {
+		List<Expr> arguments = new ArrayList<>();
+		for (Expr argument : call.arguments) {
+			arguments.add(optimize(argument));
+		}
+
+		return new Call(optimize(call.callee), call.paren, arguments);
+	}
+
+	@Override
+	public Expr visitArrayLiteral(ArrayLiteral array) {
+		List<Expr> elements = new ArrayList<>();
+		for (Expr element : array.elements) {
+			elements.add(optimize(element));
+		}
+
+		return new ArrayLiteral(array.bracket, elements);
+	}
+
+	@Override
+	public Expr visitIndex(Index index) {
+		return new Index(optimize(index.array), index.bracket, optimize(index.index));
+	}
+
+	@Override
+	public Expr visitSetIndex(SetIndex setIndex) {
+		return new SetIndex(optimize(setIndex.array), setIndex.bracket, optimize(setIndex.index),
+				optimize(setIndex.value));
+	}
+
+	@Override
+	public Stmt visitExpression(Expression expr) {
+		return new Expression(optimize(expr.expr));
+	}
+
+	@Override
+	public Stmt visitPrint(Print print) {
+		return new Print(optimize(print.expr));
+	}
+
+	@Override
+	public Stmt visitVariableStmt(VariableStmt var) {
+		Expr initializer = var.initializer != null ? optimize(var.initializer) : null;
+
+		if (var.slot != -1) {
+			scopes.get(scopes.size() - 1)[var.slot] = var;
+			Expr value = initializer != null ? initializer : new Literal(null);
+
+			if (!collecting && !assigned.contains(var) && value instanceof Literal) {
+				constants.put(var, (Literal) value);
+				return null;
+			}
+		}
+
+		VariableStmt optimized = new VariableStmt(var.name, initializer);
+		optimized.slot = var.slot;
+		return optimized;
+	}
+
+	@Override
+	public Stmt visitBlock(Block block) {
+		// a flattened block declares its variables in the frame of the enclosing scope
+		if (!block.flattened) {
+			scopes.add(new VariableStmt[block.frameSize]);
+		}
+		List<Stmt> statements = optimizeAll(block.statements);
+		if (!block.flattened) {
+			scopes.remove(scopes.size() - 1);
+		}
+
+		if (statements.isEmpty()) {
+			return null;
+		}
+
+		Block optimized = new Block(statements);
+		optimized.frameSize = block.frameSize;
+		optimized.flattened = block.flattened;
+		return optimized;
+	}
+
+	@Override
+	public Stmt visitIfStmt(IfStmt ifStmt) {
+		Expr condition = optimize(ifStmt.condition);
+
+		if (condition instanceof Literal) {
+			Stmt branch = Interpreter.isTruthy(((Literal) condition).value) ? ifStmt.thenBranch : ifStmt.elseBranch;
+			return branch != null ? optimize(branch) : null;
+		}
+
+		Stmt elseBranch = ifStmt.elseBranch != null ? optimizeBranch(ifStmt.elseBranch) : null;
+		return new IfStmt(condition, optimizeBranch(ifStmt.thenBranch), elseBranch);
+	}
+
+	@Override
+	public Stmt visitWhileStmt(WhileStmt whileStmt) {
+		Expr condition = optimize(whileStmt.condition);
+
+		if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)) {
+			return null;
+		}
+
+		Stmt body = optimizeBranch(whileStmt.body);
+		Expr increment = whileStmt.increment != null ? optimize(whileStmt.increment) : null;
+		return new WhileStmt(condition, body, increment);
+	}
+
+	@Override
+	public Stmt visitBreakStmt(BreakStmt breakStmt) {
+		return breakStmt;
+	}
+
+	@Override
+	public Stmt visitContinueStmt(ContinueStmt continueStmt) {
+		return continueStmt;
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Function function) {
+		Block body = (Block) function.body;
+
+		scopes.add(new VariableStmt[function.frameSize]);
+		Block optimizedBody = new Block(optimizeAll(body.statements));
+		scopes.remove(scopes.size() - 1);
+		optimizedBody.frameSize = body.frameSize;
+
+		Function optimized = new Function(function.name, function.params, optimizedBody);
+		optimized.slot = function.slot;
+		optimized.frameSize = function.frameSize;
+		optimized.hasClosures = function.hasClosures;
+		return optimized;
+	}
+
+	@Override
+	public Stmt visitReturnStmt(ReturnStmt returnStmt) {
+		Expr value = returnStmt.value != null ? optimize(returnStmt.value) : null;
+		ReturnStmt optimized = new ReturnStmt(returnStmt.token, value);
+		optimized.tailCall = returnStmt.tailCall && value instanceof Call;
+		return optimized;
+	}
+}
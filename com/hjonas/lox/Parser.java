@@ -6,6 +6,7 @@ import static com.hjonas.lox.TokenType.BANG_EQUAL;
 import static com.hjonas.lox.TokenType.BREAK;
 import static com.hjonas.lox.TokenType.CLASS;
 import static com.hjonas.lox.TokenType.COMMA;
+import static com.hjonas.lox.TokenType.CONTINUE;
 import static com.hjonas.lox.TokenType.ELSE;
 import static com.hjonas.lox.TokenType.EOF;
 import static com.hjonas.lox.TokenType.EQUAL;
@@ -18,6 +19,7 @@ import static com.hjonas.lox.TokenType.GREATER_EQUAL;
 import static com.hjonas.lox.TokenType.IDENTIFIER;
 import static com.hjonas.lox.TokenType.IF;
 import static com.hjonas.lox.TokenType.LEFT_BRACE;
+import static com.hjonas.lox.TokenType.LEFT_BRACKET;
 import static com.hjonas.lox.TokenType.LEFT_PAREN;
 import static com.hjonas.lox.TokenType.LESS;
 import static com.hjonas.lox.TokenType.LESS_EQUAL;
@@ -29,6 +31,7 @@ import static com.hjonas.lox.TokenType.PLUS;
 import static com.hjonas.lox.TokenType.PRINT;
 import static com.hjonas.lox.TokenType.RETURN;
 import static com.hjonas.lox.TokenType.RIGHT_BRACE;
+import static com.hjonas.lox.TokenType.RIGHT_BRACKET;
 import static com.hjonas.lox.TokenType.RIGHT_PAREN;
 import static com.hjonas.lox.TokenType.SEMICOLON;
 import static com.hjonas.lox.TokenType.SLASH;
@@ -41,17 +44,27 @@ import static com.hjonas.lox.TokenType.WHILE;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 class Parser {
 	private static class ParseError extends RuntimeException {
 	}
 
-	private final List<Token> tokens;
-	private int current;
+	private final Supplier<Token> tokens;
+	private final ErrorReporter reporter;
+	private Token lookahead;
 
-	Parser(List<Token> tokens) {
+	Parser(TokenBuffer tokens, ErrorReporter reporter) {
+		this(tokens.iterator()::next, reporter);
+	}
+
+	Parser(Scanner scanner, ErrorReporter reporter) {
+		this(scanner::nextToken, reporter);
+	}
+
+	private Parser(Supplier<Token> tokens, ErrorReporter reporter) {
 		this.tokens = tokens;
-		this.current = 0;
+		this.reporter = reporter;
 	}
 
 	Stmt declaration() {
@@ -116,6 +129,12 @@ class Parser {
 			return breakStmt;
 		}
 
+		if (match(CONTINUE)) {
+			Stmt continueStmt = new Stmt.ContinueStmt(advance());
+			consume(SEMICOLON, "expected ';' after 'continue'.");
+			return continueStmt;
+		}
+
 		if (match(FUN)) {
 			advance();
 			return function("function");
@@ -148,7 +167,7 @@ class Parser {
 			while (match(COMMA)) {
 				advance();
 				if (params.size() > 255) {
-					Lox.error(peek(), "Cant have more that 255 parameters.");
+					reporter.error(peek(), "Cant have more that 255 parameters.");
 				}
 				params.add(consume(IDENTIFIER, "expected parameter name."));
 			}
@@ -198,20 +217,13 @@ class Parser {
 			consume(RIGHT_PAREN, "expected ')' after increment.");
 		}
 
-		Stmt body = null;
-
-		if (increment == null) {
-			body = statement();
-		} else {
-			body = new Stmt.Block(Arrays.asList(statement(), new Stmt.Expression(increment)));
-		}
-
+		Stmt body = statement();
 		Stmt loopStmt = null;
 
 		if (condition == null) {
-			loopStmt = new Stmt.WhileStmt(new Expr.Literal(true), body);
+			loopStmt = new Stmt.WhileStmt(new Expr.Literal(true), body, increment);
 		} else {
-			loopStmt = new Stmt.WhileStmt(condition, body);
+			loopStmt = new Stmt.WhileStmt(condition, body, increment);
 		}
 
 		if (init == null) {
@@ -228,7 +240,7 @@ class Parser {
 
 		Stmt body = statement();
 
-		return new Stmt.WhileStmt(condition, body);
+		return new Stmt.WhileStmt(condition, body, null);
 	}
 
 	Stmt ifStatement() {
@@ -276,8 +288,12 @@ class Parser {
 			if (expr instanceof Expr.VariableExpr) {
 				return new Expr.Assign(((Expr.VariableExpr) expr).name, value);
 			}
+			if (expr instanceof Expr.Index) {
+				Expr.Index index = (Expr.Index) expr;
+				return new Expr.SetIndex(index.array, index.bracket, index.index, value);
+			}
 
-			Lox.error(token, "invalid assignment identifier");
+			reporter.error(token, "invalid assignment identifier");
 		}
 
 		return expr;
@@ -363,6 +379,13 @@ class Parser {
 		Expr expr = primary();
 
 		while (true) {
+			if (match(LEFT_BRACKET)) {
+				Token bracket = advance();
+				Expr index = expression();
+				consume(RIGHT_BRACKET, "expected ']' after index.");
+				expr = new Expr.Index(expr, bracket, index);
+				continue;
+			}
 			if (!match(LEFT_PAREN)) {
 				break;
 			}
@@ -374,7 +397,7 @@ class Parser {
 				args.add(expression());
 				while (match(COMMA)) {
 					if (args.size() > 255) {
-						Lox.error(peek(), "Cant have more that 255 arguments.");
+						reporter.error(peek(), "Cant have more that 255 arguments.");
 					}
 					advance();
 					args.add(expression());
@@ -418,6 +441,22 @@ class Parser {
 			return expr;
 		}
 
+		if (match(LEFT_BRACKET)) {
+			Token bracket = advance();
+			List<Expr> elements = new ArrayList<>();
+
+			if (!match(RIGHT_BRACKET)) {
+				elements.add(expression());
+				while (match(COMMA)) {
+					advance();
+					elements.add(expression());
+				}
+			}
+
+			consume(RIGHT_BRACKET, "expected ']' after array elements.");
+			return new Expr.ArrayLiteral(bracket, elements);
+		}
+
 		throw error(peek(), "expected expression.");
 	}
 
@@ -429,11 +468,18 @@ class Parser {
 	}
 
 	private Token advance() {
-		return tokens.get(current++);
+		Token token = peek();
+		if (token.type != EOF) {
+			lookahead = null;
+		}
+		return token;
 	}
 
 	private Token peek() {
-		return tokens.get(current);
+		if (lookahead == null) {
+			lookahead = tokens.get();
+		}
+		return lookahead;
 	}
 
 	private boolean isAtEnd() {
@@ -454,7 +500,7 @@ class Parser {
 	}
 
 	private ParseError error(Token token, String message) {
-		Lox.error(token.line, message);
+		reporter.error(token.line, message);
 		return new ParseError();
 	}
 
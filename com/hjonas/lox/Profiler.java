@@ -0,0 +1,222 @@
+package com.hjonas.lox;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// samples the lox call stack of one context from a background thread. the
+// interpreter keeps the stack up to date on every call, the sampler only reads it,
+// so a sample may be off by a frame but never blocks the script
+public final class Profiler {
+	private static final String SCRIPT = "<script>";
+
+	// the functions the interpreter is currently inside, innermost last
+	static class ShadowStack {
+		// depth is published with release stores: they are plain stores on most
+		// hardware, where a volatile write would fence on every call
+		private static final VarHandle DEPTH;
+
+		static {
+			try {
+				DEPTH = MethodHandles.lookup().findVarHandle(ShadowStack.class, "depth", int.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		private volatile Stmt.Function[] frames = new Stmt.Function[64];
+		private int depth;
+		// set while a script runs, so time between runs isn't counted
+		private volatile boolean active;
+		private final Map<Stmt.Function, int[]> calls = new IdentityHashMap<>();
+
+		void push(Stmt.Function function) {
+			if (depth == frames.length) {
+				frames = Arrays.copyOf(frames, depth * 2);
+			}
+			frames[depth] = function;
+			DEPTH.setRelease(this, depth + 1);
+			count(function);
+		}
+
+		// a tail call replaces the caller's frame instead of growing the stack
+		void replace(Stmt.Function function) {
+			frames[depth - 1] = function;
+			count(function);
+		}
+
+		void pop() {
+			DEPTH.setRelease(this, depth - 1);
+		}
+
+		int sampleDepth() {
+			return (int) DEPTH.getAcquire(this);
+		}
+
+		// recursion and loops mostly call the same function again, so the last
+		// counter is kept at hand
+		private Stmt.Function lastFunction;
+		private int[] lastCount;
+
+		private void count(Stmt.Function function) {
+			if (function != lastFunction) {
+				lastCount = calls.computeIfAbsent(function, f -> new int[1]);
+				lastFunction = function;
+			}
+			lastCount[0]++;
+		}
+
+		void enter() {
+			active = true;
+		}
+
+		void exit() {
+			active = false;
+		}
+	}
+
+	private static class Entry {
+		final String name;
+		int calls;
+		long self;
+		long total;
+
+		Entry(String name) {
+			this.name = name;
+		}
+	}
+
+	private final ShadowStack stack;
+	private final long intervalNanos;
+	private final Map<String, long[]> samples = new HashMap<>();
+	private final Thread sampler;
+	private volatile boolean running = true;
+	private long sampleCount;
+	// wall time covered by the samples; parking overshoots the interval, so the
+	// table scales by this rather than by the nominal interval
+	private long sampledNanos;
+
+	Profiler(ShadowStack stack, long interval, TimeUnit unit) {
+		this.stack = stack;
+		this.intervalNanos = unit.toNanos(interval);
+		this.sampler = new Thread(this::sample, "lox-profiler");
+		this.sampler.setDaemon(true);
+		this.sampler.start();
+	}
+
+	private static String name(Stmt.Function function) {
+		return function.name.lexeme + ":" + function.name.line;
+	}
+
+	private void sample() {
+		StringBuilder key = new StringBuilder();
+		long last = System.nanoTime();
+
+		while (running) {
+			LockSupport.parkNanos(intervalNanos);
+			long now = System.nanoTime();
+			long elapsed = now - last;
+			last = now;
+
+			if (!stack.active) {
+				continue;
+			}
+
+			int depth = stack.sampleDepth();
+			Stmt.Function[] frames = stack.frames;
+			depth = Math.min(depth, frames.length);
+
+			key.setLength(0);
+			key.append(SCRIPT);
+			for (int i = 0; i < depth; i++) {
+				Stmt.Function frame = frames[i];
+
+				if (frame != null) {
+					key.append(';').append(name(frame));
+				}
+			}
+
+			synchronized (this) {
+				samples.computeIfAbsent(key.toString(), k -> new long[1])[0]++;
+				sampleCount++;
+				sampledNanos += elapsed;
+			}
+		}
+	}
+
+	// stops sampling; the counts gathered so far stay available for the reports
+	public void stop() {
+		running = false;
+		try {
+			sampler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// one line per distinct stack, "outer;inner count", as flame graph tools expect
+	public synchronized void writeCollapsed(PrintStream out) {
+		for (Map.Entry<String, long[]> sample : samples.entrySet()) {
+			out.println(sample.getKey() + " " + sample.getValue()[0]);
+		}
+		out.flush();
+	}
+
+	// self and total time estimated from the samples, and the exact number of calls
+	public synchronized void writeTable(PrintStream out) {
+		Map<String, Entry> entries = new HashMap<>();
+
+		for (Map.Entry<String, long[]> sample : samples.entrySet()) {
+			String[] frames = sample.getKey().split(";");
+			long count = sample.getValue()[0];
+
+			entry(entries, frames[frames.length - 1]).self += count;
+
+			// recursion must not count a sample twice for the same function
+			for (int i = 0; i < frames.length; i++) {
+				if (indexOf(frames, frames[i]) == i) {
+					entry(entries, frames[i]).total += count;
+				}
+			}
+		}
+		for (Map.Entry<Stmt.Function, int[]> call : stack.calls.entrySet()) {
+			entry(entries, name(call.getKey())).calls += call.getValue()[0];
+		}
+
+		List<Entry> sorted = new ArrayList<>(entries.values());
+		sorted.sort((a, b) -> a.self != b.self ? Long.compare(b.self, a.self) : Long.compare(b.total, a.total));
+
+		double millis = sampleCount == 0 ? 0 : sampledNanos / 1e6 / sampleCount;
+		out.printf("%-32s %10s %10s %7s %10s %7s%n", "function", "calls", "self ms", "self%", "total ms", "total%");
+		for (Entry entry : sorted) {
+			out.printf("%-32s %10d %10.1f %6.1f%% %10.1f %6.1f%%%n", entry.name, entry.calls, entry.self * millis,
+					percent(entry.self), entry.total * millis, percent(entry.total));
+		}
+		out.flush();
+	}
+
+	private static Entry entry(Map<String, Entry> entries, String name) {
+		return entries.computeIfAbsent(name, Entry::new);
+	}
+
+	private double percent(long count) {
+		return sampleCount == 0 ? 0 : 100.0 * count / sampleCount;
+	}
+
+	private static int indexOf(String[] frames, String frame) {
+		for (int i = 0; i < frames.length; i++) {
+			if (frames[i].equals(frame)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -5,15 +5,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
+import com.hjonas.lox.Expr.ArrayLiteral;
 import com.hjonas.lox.Expr.Assign;
 import com.hjonas.lox.Expr.Binary;
 import com.hjonas.lox.Expr.Call;
 import com.hjonas.lox.Expr.Grouping;
+import com.hjonas.lox.Expr.Index;
 import com.hjonas.lox.Expr.Literal;
+import com.hjonas.lox.Expr.SetIndex;
 import com.hjonas.lox.Expr.Unary;
 import com.hjonas.lox.Expr.VariableExpr;
 import com.hjonas.lox.Stmt.Block;
 import com.hjonas.lox.Stmt.BreakStmt;
+import com.hjonas.lox.Stmt.ContinueStmt;
 import com.hjonas.lox.Stmt.Expression;
 import com.hjonas.lox.Stmt.Function;
 import com.hjonas.lox.Stmt.IfStmt;
@@ -23,17 +27,39 @@ import com.hjonas.lox.Stmt.VariableStmt;
 import com.hjonas.lox.Stmt.WhileStmt;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-	private final Interpreter interpreter;
-	private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+	private final Stack<Scope> scopes = new Stack<>();
+	private final ErrorReporter reporter;
 	private FunctionType currentFunction = FunctionType.NONE;
+	private Stmt.Function enclosingDeclaration;
+	private int loopDepth;
+
+	private static class Variable {
+		final int slot;
+		boolean defined;
+
+		Variable(int slot) {
+			this.slot = slot;
+		}
+	}
+
+	private static class Scope {
+		final Map<Symbol, Variable> variables = new HashMap<>();
+		// the scope that owns the environment this scope's variables live in
+		final Scope frame;
+		int size;
+
+		Scope(Scope enclosing) {
+			this.frame = enclosing != null ? enclosing.frame : this;
+		}
+	}
 
 	private enum FunctionType {
 		NONE,
 		FUNCTION
 	}
 
-	Resolver(Interpreter interpreter) {
-		this.interpreter = interpreter;
+	Resolver(ErrorReporter reporter) {
+		this.reporter = reporter;
 	}
 
 	void resolve(List<Stmt> statements) {
@@ -51,25 +77,33 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 
 	private void beginScope() {
-		scopes.push(new HashMap<>());
+		scopes.push(new Scope(null));
+	}
+
+	// a flattened scope allocates its slots in the enclosing frame instead of getting its own
+	private void beginFlattenedScope() {
+		scopes.push(new Scope(scopes.peek()));
 	}
 
 	private void endScope() {
 		scopes.pop();
 	}
 
-	private void declare(Token name) {
+	private int declare(Token name) {
 		if (scopes.isEmpty()) {
-			return;
+			return -1;
 		}
 
-		Map<String, Boolean> scope = scopes.peek();
+		Scope scope = scopes.peek();
 
-		if (scope.containsKey(name.lexeme)) {
-			Lox.error(name, "Already a variable with this name in this scope.");
+		if (scope.variables.containsKey(name.symbol)) {
+			reporter.error(name, "Already a variable with this name in this scope.");
+			return scope.variables.get(name.symbol).slot;
 		}
 
-		scope.put(name.lexeme, false);
+		Variable variable = new Variable(scope.frame.size++);
+		scope.variables.put(name.symbol, variable);
+		return variable.slot;
 	}
 
 	private void define(Token name) {
@@ -77,31 +111,84 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			return;
 		}
 
-		scopes.peek().put(name.lexeme, true);
+		scopes.peek().variables.get(name.symbol).defined = true;
+	}
+
+	// the number of environments between the current one and the one holding name
+	private int resolveLocal(Token name) {
+		int depth = 0;
+
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			Scope scope = scopes.get(i);
+
+			if (scope.variables.containsKey(name.symbol)) {
+				return depth;
+			}
+			if (scope.frame == scope) {
+				depth++;
+			}
+		}
+		return -1;
 	}
 
-	private void resolveLocal(Expr expr, Token name) {
+	private int slotOf(Token name) {
 		for (int i = scopes.size() - 1; i >= 0; i--) {
-			if (scopes.get(i).containsKey(name.lexeme)) {
-				interpreter.resolve(expr, scopes.size() - 1 - i);
-				return;
+			Variable variable = scopes.get(i).variables.get(name.symbol);
+
+			if (variable != null) {
+				return variable.slot;
+			}
+		}
+		return -1;
+	}
+
+	// closures can only capture the variables of a block that declares a function
+	private static boolean declaresFunction(Stmt statement) {
+		if (statement instanceof Function) {
+			return true;
+		}
+		if (statement instanceof Block) {
+			for (Stmt inner : ((Block) statement).statements) {
+				if (declaresFunction(inner)) {
+					return true;
+				}
 			}
 		}
+		if (statement instanceof IfStmt) {
+			IfStmt ifStmt = (IfStmt) statement;
+			return declaresFunction(ifStmt.thenBranch)
+					|| (ifStmt.elseBranch != null && declaresFunction(ifStmt.elseBranch));
+		}
+		if (statement instanceof WhileStmt) {
+			return declaresFunction(((WhileStmt) statement).body);
+		}
+		return false;
 	}
 
 	private void resolveFunction(Stmt.Function function, FunctionType funcType) {
 		FunctionType enclosingFunction = currentFunction;
+		Stmt.Function enclosing = enclosingDeclaration;
+		int enclosingLoopDepth = loopDepth;
 		currentFunction = funcType;
+		enclosingDeclaration = function;
+		loopDepth = 0;
+
+		if (enclosing != null) {
+			enclosing.hasClosures = true;
+		}
 
 		beginScope();
 		for (Token param : function.params) {
 			declare(param);
 			define(param);
 		}
-		resolve(function.body);
+		resolve(((Stmt.Block) function.body).statements);
+		function.frameSize = scopes.peek().size;
 		endScope();
 
 		currentFunction = enclosingFunction;
+		enclosingDeclaration = enclosing;
+		loopDepth = enclosingLoopDepth;
 	}
 
 	@Override
@@ -118,7 +205,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitVariableStmt(VariableStmt var) {
-		declare(var.name);
+		var.slot = declare(var.name);
 
 		if (var.initializer != null) {
 			resolve(var.initializer);
@@ -130,8 +217,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitBlock(Block block) {
-		beginScope();
+		block.flattened = !scopes.isEmpty() && !declaresFunction(block);
+
+		if (block.flattened) {
+			beginFlattenedScope();
+		} else {
+			beginScope();
+		}
 		resolve(block.statements);
+		block.frameSize = scopes.peek().size;
 		endScope();
 		return null;
 	}
@@ -151,18 +245,35 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitWhileStmt(WhileStmt whileStmt) {
 		resolve(whileStmt.condition);
+		loopDepth++;
 		resolve(whileStmt.body);
+		loopDepth--;
+
+		if (whileStmt.increment != null) {
+			resolve(whileStmt.increment);
+		}
 		return null;
 	}
 
 	@Override
 	public Void visitBreakStmt(BreakStmt breakStmt) {
+		if (loopDepth == 0) {
+			reporter.error(breakStmt.token, "unexpeced token 'break' outside of loop.");
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitContinueStmt(ContinueStmt continueStmt) {
+		if (loopDepth == 0) {
+			reporter.error(continueStmt.token, "unexpeced token 'continue' outside of loop.");
+		}
 		return null;
 	}
 
 	@Override
 	public Void visitFunctionStmt(Function function) {
-		declare(function.name);
+		function.slot = declare(function.name);
 		define(function.name);
 		resolveFunction(function, FunctionType.FUNCTION);
 		return null;
@@ -171,11 +282,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitReturnStmt(ReturnStmt returnStmt) {
 		if (currentFunction == FunctionType.NONE) {
-			Lox.error(returnStmt.token, "Can't return fromm top-level code.");
+			reporter.error(returnStmt.token, "Can't return fromm top-level code.");
 		}
 		if (returnStmt.value != null) {
 			resolve(returnStmt.value);
 		}
+
+		returnStmt.tailCall = returnStmt.value instanceof Call;
 		return null;
 	}
 
@@ -189,9 +302,35 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	public Void visitBinary(Binary binary) {
 		resolve(binary.left);
 		resolve(binary.right);
+		binary.numeric = isNumeric(binary.left) && isNumeric(binary.right);
 		return null;
 	}
 
+	private boolean isNumeric(Expr expr) {
+		if (expr instanceof Literal) {
+			return ((Literal) expr).value instanceof Double;
+		}
+		if (expr instanceof Grouping) {
+			return isNumeric(((Grouping) expr).expr);
+		}
+		if (expr instanceof Unary) {
+			return ((Unary) expr).operator.type == TokenType.MINUS;
+		}
+		if (expr instanceof Binary) {
+			switch (((Binary) expr).operator.type) {
+				case MINUS:
+				case STAR:
+				case SLASH: {
+					return true;
+				}
+				case PLUS: {
+					return ((Binary) expr).numeric;
+				}
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public Void visitGroupping(Grouping grouping) {
 		resolve(grouping.expr);
@@ -205,18 +344,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitVariableExpr(VariableExpr variable) {
-		if (!scopes.isEmpty()
-				&& scopes.peek().get(variable.name.lexeme) == Boolean.FALSE) {
-			Lox.error(variable.name, "Can't read local variable in its own initializer.");
+		if (!scopes.isEmpty() && scopes.peek().variables.containsKey(variable.name.symbol)
+				&& !scopes.peek().variables.get(variable.name.symbol).defined) {
+			reporter.error(variable.name, "Can't read local variable in its own initializer.");
+		}
+		variable.depth = resolveLocal(variable.name);
+		if (variable.depth != -1) {
+			variable.slot = slotOf(variable.name);
 		}
-		resolveLocal(variable, variable.name);
 		return null;
 	}
 
 	@Override
 	public Void visitAssign(Assign assign) {
 		resolve(assign.value);
-		resolveLocal(assign, assign.name);
+		assign.depth = resolveLocal(assign.name);
+		if (assign.depth != -1) {
+			assign.slot = slotOf(assign.name);
+		}
 		return null;
 	}
 
@@ -228,4 +373,27 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		}
 		return null;
 	}
+
+	@Override
+	public Void visitArrayLiteral(ArrayLiteral array) {
+		for (Expr element : array.elements) {
+			resolve(element);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitIndex(Index index) {
+		resolve(index.array);
+		resolve(index.index);
+		return null;
+	}
+
+	@Override
+	public Void visitSetIndex(SetIndex setIndex) {
+		resolve(setIndex.array);
+		resolve(setIndex.index);
+		resolve(setIndex.value);
+		return null;
+	}
 }
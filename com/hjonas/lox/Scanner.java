@@ -1,27 +1,70 @@
 package com.hjonas.lox;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class Scanner {
-	private String source;
-	private List<Token> tokens;
+	private CharSequence source;
+	private final ErrorReporter reporter;
+	private TokenType next;
 	private int line;
 	private int start;
 	private int cursor;
+	private static final int BATCH = 256;
 
-	Scanner(String source) {
+	private final TokenBuffer batch;
+	private int batchIndex;
+	// time spent producing tokens, read once parsing is done
+	long nanos;
+
+	Scanner(CharSequence source, ErrorReporter reporter) {
 		this.source = source;
+		this.reporter = reporter;
+		batch = new TokenBuffer(source);
 		line = 1;
 		start = 0;
 		cursor = 0;
-		tokens = new ArrayList<>();
 	}
 
-	List<Token> scanTokens() {
-		while (!isAtEnd()) {
+	TokenBuffer scanTokens() {
+		TokenBuffer tokens = new TokenBuffer(source);
+		TokenType type;
+
+		do {
+			type = scanToken();
+			tokens.add(type, start, cursor, line);
+		} while (type != TokenType.EOF);
+
+		return tokens;
+	}
+
+	// scans just far enough ahead to produce the next token, so the parser can pull
+	// tokens as it goes instead of waiting for the whole file. tokens are scanned a
+	// small batch at a time into a reused buffer, which keeps the scanner's loop hot
+	// and lets it be timed without reading the clock for every token. a token object
+	// is only made when the parser takes it
+	Token nextToken() {
+		if (batchIndex == batch.size()) {
+			long begin = System.nanoTime();
+			TokenType type;
+
+			batchIndex = 0;
+			batch.clear();
+			do {
+				type = scanToken();
+				batch.add(type, start, cursor, line);
+			} while (type != TokenType.EOF && batch.size() < BATCH);
+
+			nanos += System.nanoTime() - begin;
+		}
+
+		return batch.token(batchIndex++);
+	}
+
+	private TokenType scanToken() {
+		next = null;
+
+		while (next == null && !isAtEnd()) {
 			start = cursor;
 			char ch = advance();
 
@@ -36,48 +79,56 @@ public class Scanner {
 					continue;
 				}
 				case ',': {
-					addToken(TokenType.COMMA, null);
+					addToken(TokenType.COMMA);
 					continue;
 				}
 				case ';': {
-					addToken(TokenType.SEMICOLON, null);
+					addToken(TokenType.SEMICOLON);
 					continue;
 				}
 				case '.': {
-					addToken(TokenType.DOT, null);
+					addToken(TokenType.DOT);
 					continue;
 				}
 				case '-': {
-					addToken(TokenType.MINUS, null);
+					addToken(TokenType.MINUS);
 					continue;
 				}
 				case '+': {
-					addToken(TokenType.PLUS, null);
+					addToken(TokenType.PLUS);
 					continue;
 				}
 				case '*': {
-					addToken(TokenType.STAR, null);
+					addToken(TokenType.STAR);
 					continue;
 				}
 				case '{': {
-					addToken(TokenType.LEFT_BRACE, null);
+					addToken(TokenType.LEFT_BRACE);
 					continue;
 				}
 				case '}': {
-					addToken(TokenType.RIGHT_BRACE, null);
+					addToken(TokenType.RIGHT_BRACE);
 					continue;
 				}
 				case '(': {
-					addToken(TokenType.LEFT_PAREN, null);
+					addToken(TokenType.LEFT_PAREN);
 					continue;
 				}
 				case ')': {
-					addToken(TokenType.RIGHT_PAREN, null);
+					addToken(TokenType.RIGHT_PAREN);
+					continue;
+				}
+				case '[': {
+					addToken(TokenType.LEFT_BRACKET);
+					continue;
+				}
+				case ']': {
+					addToken(TokenType.RIGHT_BRACKET);
 					continue;
 				}
 				case '/': {
 					if (!matchAdvance('/')) {
-						addToken(TokenType.SLASH, null);
+						addToken(TokenType.SLASH);
 						continue;
 					}
 					comment();
@@ -85,34 +136,34 @@ public class Scanner {
 				}
 				case '!': {
 					if (!matchAdvance('=')) {
-						addToken(TokenType.BANG, null);
+						addToken(TokenType.BANG);
 						continue;
 					}
-					addToken(TokenType.BANG_EQUAL, null);
+					addToken(TokenType.BANG_EQUAL);
 					continue;
 				}
 				case '=': {
 					if (!matchAdvance('=')) {
-						addToken(TokenType.EQUAL, null);
+						addToken(TokenType.EQUAL);
 						continue;
 					}
-					addToken(TokenType.EQUAL_EQUAL, null);
+					addToken(TokenType.EQUAL_EQUAL);
 					continue;
 				}
 				case '<': {
 					if (!matchAdvance('=')) {
-						addToken(TokenType.LESS, null);
+						addToken(TokenType.LESS);
 						continue;
 					}
-					addToken(TokenType.LESS_EQUAL, null);
+					addToken(TokenType.LESS_EQUAL);
 					continue;
 				}
 				case '>': {
 					if (!matchAdvance('=')) {
-						addToken(TokenType.GREATER, null);
+						addToken(TokenType.GREATER);
 						continue;
 					}
-					addToken(TokenType.GREATER_EQUAL, null);
+					addToken(TokenType.GREATER_EQUAL);
 					continue;
 				}
 				case '"': {
@@ -127,13 +178,16 @@ public class Scanner {
 						identifier();
 						continue;
 					}
-					Lox.error(line, ("unexpected character"));
+					reporter.error(line, ("unexpected character"));
 				}
 			}
 		}
 
-		addToken(TokenType.EOF, "\0", null);
-		return tokens;
+		if (next == null) {
+			start = cursor;
+			next = TokenType.EOF;
+		}
+		return next;
 	}
 
 	private void number() {
@@ -148,10 +202,7 @@ public class Scanner {
 			}
 		}
 
-		String lexeme = source.substring(start, cursor);
-		start = cursor;
-
-		addToken(TokenType.NUMBER, lexeme, Double.parseDouble(lexeme));
+		addToken(TokenType.NUMBER);
 	}
 
 	private void identifier() {
@@ -159,15 +210,7 @@ public class Scanner {
 			advance();
 		}
 
-		String str = source.substring(start, cursor);
-		TokenType tType = keywords.get(str);
-
-		if (tType != null) {
-			addToken(tType, null);
-			return;
-		}
-
-		addToken(TokenType.IDENTIFIER, null);
+		addToken(keyword());
 	}
 
 	private void string() {
@@ -180,13 +223,67 @@ public class Scanner {
 		}
 
 		if (isAtEnd()) {
-			Lox.error(line, "unterminated string");
+			reporter.error(line, "unterminated string");
 		}
 
 		advance();
+		addToken(TokenType.STRING);
+	}
+
+	// the first letter and the length leave one keyword the identifier could be, as
+	// in clox, and that one is compared in place so scanning doesn't allocate a lexeme
+	private TokenType keyword() {
+		int length = cursor - start;
 
-		String lexeme = source.substring(start + 1, cursor - 1);
-		addToken(TokenType.STRING, lexeme, lexeme);
+		switch (source.charAt(start)) {
+			case 'a':
+				return checkKeyword("and", TokenType.AND);
+			case 'b':
+				return checkKeyword("break", TokenType.BREAK);
+			case 'c':
+				return length == 5 ? checkKeyword("class", TokenType.CLASS) : checkKeyword("continue", TokenType.CONTINUE);
+			case 'e':
+				return checkKeyword("else", TokenType.ELSE);
+			case 'f':
+				if (length == 5) {
+					return checkKeyword("false", TokenType.FALSE);
+				}
+				return length > 1 && source.charAt(start + 1) == 'o' ? checkKeyword("for", TokenType.FOR) : checkKeyword("fun", TokenType.FUN);
+			case 'i':
+				return checkKeyword("if", TokenType.IF);
+			case 'n':
+				return checkKeyword("nil", TokenType.NIL);
+			case 'o':
+				return checkKeyword("or", TokenType.OR);
+			case 'p':
+				return checkKeyword("print", TokenType.PRINT);
+			case 'r':
+				return checkKeyword("return", TokenType.RETURN);
+			case 's':
+				return checkKeyword("super", TokenType.SUPER);
+			case 't':
+				return length > 1 && source.charAt(start + 1) == 'h' ? checkKeyword("this", TokenType.THIS) : checkKeyword("true", TokenType.TRUE);
+			case 'v':
+				return checkKeyword("var", TokenType.VAR);
+			case 'w':
+				return checkKeyword("while", TokenType.WHILE);
+			default:
+				return TokenType.IDENTIFIER;
+		}
+	}
+
+	private TokenType checkKeyword(String word, TokenType type) {
+		if (word.length() != cursor - start) {
+			return TokenType.IDENTIFIER;
+		}
+
+		// the first letter was already switched on
+		for (int i = 1; i < word.length(); i++) {
+			if (source.charAt(start + i) != word.charAt(i)) {
+				return TokenType.IDENTIFIER;
+			}
+		}
+		return type;
 	}
 
 	private void comment() {
@@ -225,14 +322,8 @@ public class Scanner {
 		return isAlpha(ch) || isDigit(ch);
 	}
 
-	private void addToken(TokenType type, String literal) {
-		String lexeme = source.substring(start, cursor);
-		addToken(type, lexeme, literal);
-		start = cursor;
-	}
-
-	private void addToken(TokenType type, String lexeme, Object literal) {
-		tokens.add(new Token(type, lexeme, literal, line));
+	private void addToken(TokenType type) {
+		next = type;
 	}
 
 	private char advance() {
@@ -251,7 +342,7 @@ public class Scanner {
 		return source.length() <= cursor;
 	}
 
-	private static Map<String, TokenType> keywords = new HashMap<>() {
+	static final Map<String, TokenType> keywords = new HashMap<>() {
 		{
 			put("if", TokenType.IF);
 			put("else", TokenType.ELSE);
@@ -0,0 +1,738 @@
+package com.hjonas.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hjonas.lox.Expr.ArrayLiteral;
+import com.hjonas.lox.Expr.Assign;
+import com.hjonas.lox.Expr.Binary;
+import com.hjonas.lox.Expr.Call;
+import com.hjonas.lox.Expr.Grouping;
+import com.hjonas.lox.Expr.Index;
+import com.hjonas.lox.Expr.Literal;
+import com.hjonas.lox.Expr.SetIndex;
+import com.hjonas.lox.Expr.Unary;
+import com.hjonas.lox.Expr.VariableExpr;
+import com.hjonas.lox.Stmt.Block;
+import com.hjonas.lox.Stmt.BreakStmt;
+import com.hjonas.lox.Stmt.ContinueStmt;
+import com.hjonas.lox.Stmt.Expression;
+import com.hjonas.lox.Stmt.Function;
+import com.hjonas.lox.Stmt.IfStmt;
+import com.hjonas.lox.Stmt.Print;
+import com.hjonas.lox.Stmt.ReturnStmt;
+import com.hjonas.lox.Stmt.VariableStmt;
+import com.hjonas.lox.Stmt.WhileStmt;
+
+// keeps the resolved and optimized tree of a script in a .loxc file next to it, so
+// a later run of the same source skips the scanner, parser, resolver and optimizer.
+// the file starts with the sha-256 of the source it was built from and is only used
+// while that still matches. the sha-256 of the encoded tree follows it, so a damaged
+// file is rejected before any of it is decoded
+class ScriptCache {
+	private static final int MAGIC = 0x4c4f5843;
+	// bump whenever the tree or what the front end stores on it changes
+	private static final int VERSION = 3;
+
+	private static final byte EXPRESSION = 0;
+	private static final byte PRINT = 1;
+	private static final byte VARIABLE_STMT = 2;
+	private static final byte BLOCK = 3;
+	private static final byte IF = 4;
+	private static final byte WHILE = 5;
+	private static final byte BREAK = 6;
+	private static final byte CONTINUE = 7;
+	private static final byte FUNCTION = 8;
+	private static final byte RETURN = 9;
+
+	private static final byte UNARY = 10;
+	private static final byte BINARY = 11;
+	private static final byte GROUPING = 12;
+	private static final byte LITERAL = 13;
+	private static final byte VARIABLE = 14;
+	private static final byte ASSIGN = 15;
+	private static final byte CALL = 16;
+
+	private static final byte NIL = 0;
+	private static final byte FALSE = 1;
+	private static final byte TRUE = 2;
+	private static final byte NUMBER = 3;
+	private static final byte STRING = 4;
+
+	private static final byte ABSENT = 17;
+
+	private static final byte ARRAY = 18;
+	private static final byte INDEX = 19;
+	private static final byte SET_INDEX = 20;
+
+	private static Path cacheFile(Path script) {
+		return script.resolveSibling(script.getFileName() + "c");
+	}
+
+	// the cached script when the cache matches the source, otherwise the freshly
+	// compiled one, which is then written back. null when the source has errors
+	static CompiledScript compile(LoxContext context, Path script, MappedSource source) {
+		Path cache = cacheFile(script);
+		byte[] hash = hash(source);
+		CompiledScript compiled = load(script.toString(), cache, hash);
+
+		if (compiled != null) {
+			return compiled;
+		}
+
+		compiled = context.compile(script.toString(), source);
+
+		if (compiled != null) {
+			store(cache, hash, compiled);
+		}
+		return compiled;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] hash(MappedSource source) {
+		MessageDigest digest = sha256();
+		digest.update(source.bytes());
+		return digest.digest();
+	}
+
+	private static CompiledScript load(String name, Path cache, byte[] hash) {
+		try {
+			return new Reader(Files.readAllBytes(cache)).read(name, hash);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException | StackOverflowError e) {
+			// a damaged or foreign file is just a miss; it gets overwritten
+			return null;
+		}
+	}
+
+	private static void store(Path cache, byte[] hash, CompiledScript script) {
+		Path temp = null;
+
+		try {
+			// written under a private name and renamed, so readers never see half a file
+			temp = cache.resolveSibling(cache.getFileName() + "." + ProcessHandle.current().pid() + "-"
+					+ Thread.currentThread().getId() + ".tmp");
+
+			ByteArrayOutputStream tree = new ByteArrayOutputStream(1 << 16);
+			new Writer(new DataOutputStream(tree)).write(script);
+			byte[] payload = tree.toByteArray();
+
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(hash);
+				out.write(sha256().digest(payload));
+				out.write(payload);
+			}
+			Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// the cache is only an optimization, a read-only directory must not fail the run
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	private static class Writer implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+		private final DataOutputStream out;
+		private final Map<String, Integer> strings = new HashMap<>();
+		private int line;
+
+		Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void write(CompiledScript script) throws IOException {
+			try {
+				writeStatements(script.statements);
+			} catch (Failure e) {
+				throw e.cause;
+			}
+			out.flush();
+		}
+
+		// the visitors can't throw checked exceptions, so io errors travel in this
+		private static class Failure extends RuntimeException {
+			final IOException cause;
+
+			Failure(IOException cause) {
+				super(null, null, false, false);
+				this.cause = cause;
+			}
+		}
+
+		private void u1(int value) {
+			try {
+				out.writeByte(value);
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+
+		// ints are zigzag varints: lines, slots and string indexes are mostly small
+		private void u4(int value) {
+			int bits = (value << 1) ^ (value >> 31);
+
+			while ((bits & ~0x7f) != 0) {
+				u1((bits & 0x7f) | 0x80);
+				bits >>>= 7;
+			}
+			u1(bits);
+		}
+
+		private void number(double value) {
+			try {
+				out.writeDouble(value);
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+
+		// every distinct string is written once, later uses refer to it by index
+		private void string(String value) {
+			Integer index = strings.get(value);
+
+			if (index != null) {
+				u4(index);
+				return;
+			}
+
+			strings.put(value, strings.size());
+			u4(-1);
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			u4(bytes.length);
+			try {
+				out.write(bytes);
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+
+		private void token(Token token) {
+			u1(token.type.ordinal());
+			string(token.lexeme);
+			// lines only as the difference to the previous token
+			u4(token.line - line);
+			line = token.line;
+		}
+
+		private void writeStatements(List<Stmt> statements) {
+			u4(statements.size());
+			for (Stmt statement : statements) {
+				statement.accept(this);
+			}
+		}
+
+		private void write(Stmt statement) {
+			if (statement == null) {
+				u1(ABSENT);
+			} else {
+				statement.accept(this);
+			}
+		}
+
+		private void write(Expr expr) {
+			if (expr == null) {
+				u1(ABSENT);
+			} else {
+				expr.accept(this);
+			}
+		}
+
+		@Override
+		public Void visitExpression(Expression expr) {
+			u1(EXPRESSION);
+			write(expr.expr);
+			return null;
+		}
+
+		@Override
+		public Void visitPrint(Print print) {
+			u1(PRINT);
+			write(print.expr);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableStmt(VariableStmt var) {
+			u1(VARIABLE_STMT);
+			token(var.name);
+			u4(var.slot);
+			write(var.initializer);
+			return null;
+		}
+
+		@Override
+		public Void visitBlock(Block block) {
+			u1(BLOCK);
+			u4(block.frameSize);
+			u1(block.flattened ? 1 : 0);
+			writeStatements(block.statements);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(IfStmt ifStmt) {
+			u1(IF);
+			write(ifStmt.condition);
+			write(ifStmt.thenBranch);
+			write(ifStmt.elseBranch);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(WhileStmt whileStmt) {
+			u1(WHILE);
+			write(whileStmt.condition);
+			write(whileStmt.body);
+			write(whileStmt.increment);
+			return null;
+		}
+
+		@Override
+		public Void visitBreakStmt(BreakStmt breakStmt) {
+			u1(BREAK);
+			token(breakStmt.token);
+			return null;
+		}
+
+		@Override
+		public Void visitContinueStmt(ContinueStmt continueStmt) {
+			u1(CONTINUE);
+			token(continueStmt.token);
+			return null;
+		}
+
+		@Override
+		public Void visitFunctionStmt(Function function) {
+			u1(FUNCTION);
+			token(function.name);
+			u4(function.params.size());
+			for (Token param : function.params) {
+				token(param);
+			}
+			u4(function.slot);
+			u4(function.frameSize);
+			u1(function.hasClosures ? 1 : 0);
+			write(function.body);
+			return null;
+		}
+
+		@Override
+		public Void visitReturnStmt(ReturnStmt returnStmt) {
+			u1(RETURN);
+			token(returnStmt.token);
+			u1(returnStmt.tailCall ? 1 : 0);
+			write(returnStmt.value);
+			return null;
+		}
+
+		@Override
+		public Void visitUnary(Unary unary) {
+			u1(UNARY);
+			token(unary.operator);
+			write(unary.right);
+			return null;
+		}
+
+		@Override
+		public Void visitBinary(Binary binary) {
+			u1(BINARY);
+			token(binary.operator);
+			u1(binary.numeric ? 1 : 0);
+			write(binary.left);
+			write(binary.right);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupping(Grouping grouping) {
+			u1(GROUPING);
+			write(grouping.expr);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteral(Literal literal) {
+			u1(LITERAL);
+
+			Object value = literal.value;
+			if (value == null) {
+				u1(NIL);
+			} else if (value instanceof Boolean) {
+				u1((boolean) value ? TRUE : FALSE);
+			} else if (value instanceof Double) {
+				u1(NUMBER);
+				number((double) value);
+			} else {
+				u1(STRING);
+				string((String) value);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(VariableExpr variable) {
+			u1(VARIABLE);
+			token(variable.name);
+			u4(variable.depth);
+			u4(variable.slot);
+			return null;
+		}
+
+		@Override
+		public Void visitAssign(Assign assign) {
+			u1(ASSIGN);
+			token(assign.name);
+			u4(assign.depth);
+			u4(assign.slot);
+			write(assign.value);
+			return null;
+		}
+
+		@Override
+		public Void visitCall(Call call) {
+			u1(CALL);
+			token(call.paren);
+			write(call.callee);
+			u4(call.arguments.size());
+			for (Expr argument : call.arguments) {
+				write(argument);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitArrayLiteral(ArrayLiteral array) {
+			u1(ARRAY);
+			token(array.bracket);
+			u4(array.elements.size());
+			for (Expr element : array.elements) {
+				write(element);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitIndex(Index index) {
+			u1(INDEX);
+			token(index.bracket);
+			write(index.array);
+			write(index.index);
+			return null;
+		}
+
+		@Override
+		public Void visitSetIndex(SetIndex setIndex) {
+			u1(SET_INDEX);
+			token(setIndex.bracket);
+			write(setIndex.array);
+			write(setIndex.index);
+			write(setIndex.value);
+			return null;
+		}
+	}
+
+	private static class Reader {
+		private static final TokenType[] TYPES = TokenType.values();
+
+		private final byte[] file;
+		private final DataInputStream in;
+		private final List<String> strings = new ArrayList<>();
+		private int line;
+
+		Reader(byte[] file) {
+			this.file = file;
+			in = new DataInputStream(new ByteArrayInputStream(file));
+		}
+
+		// null when the file was written by another version, for another source or
+		// was damaged since
+		CompiledScript read(String name, byte[] hash) throws IOException {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+
+			byte[] stored = new byte[hash.length];
+			in.readFully(stored);
+			if (!Arrays.equals(stored, hash)) {
+				return null;
+			}
+
+			MessageDigest sha256 = sha256();
+			stored = new byte[sha256.getDigestLength()];
+			in.readFully(stored);
+			sha256.update(file, file.length - in.available(), in.available());
+			if (!Arrays.equals(stored, sha256.digest())) {
+				return null;
+			}
+
+			List<Stmt> statements = statements();
+
+			// anything left over means the file doesn't hold what this reader expects
+			if (in.read() != -1) {
+				return null;
+			}
+			return new CompiledScript(name, statements);
+		}
+
+		private int u4() throws IOException {
+			int bits = 0;
+
+			for (int shift = 0;; shift += 7) {
+				int b = in.readUnsignedByte();
+				bits |= (b & 0x7f) << shift;
+
+				if ((b & 0x80) == 0) {
+					return (bits >>> 1) ^ -(bits & 1);
+				}
+			}
+		}
+
+		// a length or element count. every element takes at least a byte, so a count
+		// past the end of the file is damage and mustn't size an allocation
+		private int count() throws IOException {
+			int count = u4();
+
+			if (count < 0 || count > in.available()) {
+				throw new IOException("bad count " + count);
+			}
+			return count;
+		}
+
+		private String string() throws IOException {
+			int index = u4();
+
+			if (index != -1) {
+				return strings.get(index);
+			}
+
+			byte[] bytes = new byte[count()];
+			in.readFully(bytes);
+
+			String value = new String(bytes, StandardCharsets.UTF_8);
+			strings.add(value);
+			return value;
+		}
+
+		private Token token() throws IOException {
+			TokenType type = TYPES[in.readUnsignedByte()];
+			String lexeme = string();
+			line += u4();
+
+			if (type == TokenType.IDENTIFIER) {
+				return new Token(Symbol.intern(lexeme), line);
+			}
+			return new Token(type, lexeme, null, line);
+		}
+
+		private boolean flag() throws IOException {
+			return in.readUnsignedByte() != 0;
+		}
+
+		private List<Stmt> statements() throws IOException {
+			int count = count();
+			List<Stmt> statements = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				statements.add(statement());
+			}
+			return statements;
+		}
+
+		private Stmt statement() throws IOException {
+			byte tag = in.readByte();
+
+			switch (tag) {
+				case ABSENT: {
+					return null;
+				}
+				case EXPRESSION: {
+					return new Expression(expr());
+				}
+				case PRINT: {
+					return new Print(expr());
+				}
+				case VARIABLE_STMT: {
+					Token name = token();
+					int slot = u4();
+					VariableStmt var = new VariableStmt(name, expr());
+					var.slot = slot;
+					return var;
+				}
+				case BLOCK: {
+					int frameSize = u4();
+					boolean flattened = flag();
+					Block block = new Block(statements());
+					block.frameSize = frameSize;
+					block.flattened = flattened;
+					return block;
+				}
+				case IF: {
+					return new IfStmt(expr(), statement(), statement());
+				}
+				case WHILE: {
+					return new WhileStmt(expr(), statement(), expr());
+				}
+				case BREAK: {
+					return new BreakStmt(token());
+				}
+				case CONTINUE: {
+					return new ContinueStmt(token());
+				}
+				case FUNCTION: {
+					Token name = token();
+					int arity = count();
+					List<Token> params = new ArrayList<>(arity);
+					for (int i = 0; i < arity; i++) {
+						params.add(token());
+					}
+
+					int slot = u4();
+					int frameSize = u4();
+					boolean hasClosures = flag();
+					Function function = new Function(name, params, statement());
+					function.slot = slot;
+					function.frameSize = frameSize;
+					function.hasClosures = hasClosures;
+					return function;
+				}
+				case RETURN: {
+					Token token = token();
+					boolean tailCall = flag();
+					ReturnStmt returnStmt = new ReturnStmt(token, expr());
+					returnStmt.tailCall = tailCall;
+					return returnStmt;
+				}
+			}
+
+			throw new IOException("unknown statement tag " + tag);
+		}
+
+		private Expr expr() throws IOException {
+			byte tag = in.readByte();
+
+			switch (tag) {
+				case ABSENT: {
+					return null;
+				}
+				case UNARY: {
+					return new Unary(token(), expr());
+				}
+				case BINARY: {
+					Token operator = token();
+					boolean numeric = flag();
+					Binary binary = new Binary(operator, expr(), expr());
+					binary.numeric = numeric;
+					return binary;
+				}
+				case GROUPING: {
+					return new Grouping(expr());
+				}
+				case LITERAL: {
+					return new Literal(value());
+				}
+				case VARIABLE: {
+					VariableExpr variable = new VariableExpr(token());
+					variable.depth = u4();
+					variable.slot = u4();
+					return variable;
+				}
+				case ASSIGN: {
+					Token name = token();
+					int depth = u4();
+					int slot = u4();
+					Assign assign = new Assign(name, expr());
+					assign.depth = depth;
+					assign.slot = slot;
+					return assign;
+				}
+				case CALL: {
+					Token paren = token();
+					Expr callee = expr();
+					int count = count();
+					List<Expr> arguments = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						arguments.add(expr());
+					}
+					return new Call(callee, paren, arguments);
+				}
+				case ARRAY: {
+					Token bracket = token();
+					int count = count();
+					List<Expr> elements = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						elements.add(expr());
+					}
+					return new ArrayLiteral(bracket, elements);
+				}
+				case INDEX: {
+					Token bracket = token();
+					Expr array = expr();
+					return new Index(array, bracket, expr());
+				}
+				case SET_INDEX: {
+					Token bracket = token();
+					Expr array = expr();
+					Expr index = expr();
+					return new SetIndex(array, bracket, index, expr());
+				}
+			}
+
+			throw new IOException("unknown expression tag " + tag);
+		}
+
+		private Object value() throws IOException {
+			byte tag = in.readByte();
+
+			switch (tag) {
+				case NIL: {
+					return null;
+				}
+				case FALSE: {
+					return false;
+				}
+				case TRUE: {
+					return true;
+				}
+				case NUMBER: {
+					return in.readDouble();
+				}
+				case STRING: {
+					return string();
+				}
+			}
+
+			throw new IOException("unknown literal tag " + tag);
+		}
+	}
+}
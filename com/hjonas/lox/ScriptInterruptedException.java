@@ -0,0 +1,21 @@
+package com.hjonas.lox;
+
+// thrown out of LoxContext.run when the governor stops a script
+public class ScriptInterruptedException extends RuntimeException {
+	public enum Reason {
+		OUT_OF_FUEL,
+		DEADLINE,
+		CANCELLED
+	}
+
+	private final Reason reason;
+
+	ScriptInterruptedException(Reason reason) {
+		super("script stopped: " + reason.name().toLowerCase().replace('_', ' ') + ".", null, false, false);
+		this.reason = reason;
+	}
+
+	public Reason reason() {
+		return reason;
+	}
+}
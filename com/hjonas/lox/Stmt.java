@@ -19,6 +19,8 @@ abstract class Stmt {
 
 		R visitBreakStmt(BreakStmt breakStmt);
 
+		R visitContinueStmt(ContinueStmt continueStmt);
+
 		R visitFunctionStmt(Function function);
 
 		R visitReturnStmt(ReturnStmt returnStmt);
@@ -55,6 +57,7 @@ abstract class Stmt {
 	static class VariableStmt extends Stmt {
 		final Token name;
 		final Expr initializer;
+		int slot = -1;
 
 		VariableStmt(Token name, Expr initializer) {
 			this.name = name;
@@ -69,6 +72,9 @@ abstract class Stmt {
 
 	static class Block extends Stmt {
 		final List<Stmt> statements;
+		int frameSize;
+		// set when the block's variables live in the enclosing frame
+		boolean flattened;
 
 		Block(List<Stmt> statements) {
 			this.statements = statements;
@@ -100,10 +106,12 @@ abstract class Stmt {
 	static class WhileStmt extends Stmt {
 		final Expr condition;
 		final Stmt body;
+		final Expr increment;
 
-		WhileStmt(Expr condition, Stmt body) {
+		WhileStmt(Expr condition, Stmt body, Expr increment) {
 			this.condition = condition;
 			this.body = body;
+			this.increment = increment;
 		}
 
 		@Override
@@ -125,10 +133,27 @@ abstract class Stmt {
 		}
 	}
 
+	static class ContinueStmt extends Stmt {
+		final Token token;
+
+		ContinueStmt(Token token) {
+			this.token = token;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitContinueStmt(this);
+		}
+	}
+
 	static class Function extends Stmt {
 		final Token name;
 		final List<Token> params;
 		final Stmt body;
+		int slot = -1;
+		int frameSize;
+		// set when a function declared inside this one may capture its frame
+		boolean hasClosures;
 
 		Function(Token name, List<Token> params, Stmt body) {
 			this.name = name;
@@ -145,6 +170,7 @@ abstract class Stmt {
 	static class ReturnStmt extends Stmt {
 		final Token token;
 		final Expr value;
+		boolean tailCall;
 
 		ReturnStmt(Token token, Expr value) {
 			this.token = token;
@@ -0,0 +1,151 @@
+package com.hjonas.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+// an identifier interned for the whole process, so symbols are compared by identity.
+// the table only holds symbols weakly: tokens and globals keep the ones in use, and
+// an identifier no script refers to anymore is dropped, so embedders that compile
+// many scripts don't grow it forever. lookups read the table without locking, only
+// a new identifier takes the lock. a full table is replaced rather than changed, and
+// entries are published with release stores, so a reader never finds one half built.
+// symbols have no ids: globals are kept by symbol in each context, so nothing would
+// index by them, and dropped symbols would leave holes in them
+final class Symbol {
+	private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Entry[].class);
+	private static final int MIN_SIZE = 1024;
+
+	private static final class Entry extends WeakReference<Symbol> {
+		final int hash;
+
+		Entry(Symbol symbol, ReferenceQueue<Symbol> queue) {
+			super(symbol, queue);
+			this.hash = symbol.hash;
+		}
+	}
+
+	private static volatile Entry[] table = new Entry[MIN_SIZE];
+	// the rest are guarded by the class lock. used counts entries, cleared or not
+	private static final ReferenceQueue<Symbol> cleared = new ReferenceQueue<>();
+	private static int used;
+	private static int live;
+
+	final String name;
+	private final int hash;
+
+	private Symbol(String name, int hash) {
+		this.name = name;
+		this.hash = hash;
+	}
+
+	static Symbol intern(String name) {
+		return intern(name, 0, name.length());
+	}
+
+	// looks the identifier up in place, so only a new symbol allocates its name
+	static Symbol intern(CharSequence source, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + source.charAt(i);
+		}
+
+		Entry[] table = Symbol.table;
+		int mask = table.length - 1;
+		for (int index = hash & mask;; index = (index + 1) & mask) {
+			Entry entry = (Entry) SLOT.getAcquire(table, index);
+
+			if (entry == null) {
+				return add(source, start, end, hash);
+			}
+			if (entry.hash == hash) {
+				Symbol symbol = entry.get();
+				// a cleared entry stays in the chain until the table is rebuilt
+				if (symbol != null && symbol.matches(source, start, end)) {
+					return symbol;
+				}
+			}
+		}
+	}
+
+	private static synchronized Symbol add(CharSequence source, int start, int end, int hash) {
+		while (cleared.poll() != null) {
+			live--;
+		}
+
+		// searched again, another thread may have added it or rebuilt the table since
+		Entry[] table = Symbol.table;
+		int mask = table.length - 1;
+		int index = hash & mask;
+
+		for (Entry entry; (entry = table[index]) != null; index = (index + 1) & mask) {
+			Symbol symbol = entry.get();
+			if (entry.hash == hash && symbol != null && symbol.matches(source, start, end)) {
+				return symbol;
+			}
+		}
+
+		Symbol symbol = new Symbol(source.subSequence(start, end).toString(), hash);
+		live++;
+		// also rebuilt once most of its symbols were dropped, so it shrinks again
+		if (++used * 2 > table.length || (live * 8 < table.length && table.length > MIN_SIZE)) {
+			rebuild(table, new Entry(symbol, cleared));
+		} else {
+			SLOT.setRelease(table, index, new Entry(symbol, cleared));
+		}
+		return symbol;
+	}
+
+	// copies the entries that are still alive into a table sized for them
+	private static void rebuild(Entry[] old, Entry added) {
+		int size = MIN_SIZE;
+		while (size < live * 4) {
+			size *= 2;
+		}
+
+		Entry[] rebuilt = new Entry[size];
+		int mask = size - 1;
+		used = 0;
+
+		for (Entry entry : old) {
+			if (entry != null && !entry.refersTo(null)) {
+				put(rebuilt, mask, entry);
+			}
+		}
+		put(rebuilt, mask, added);
+		table = rebuilt;
+	}
+
+	private static void put(Entry[] table, int mask, Entry entry) {
+		int index = entry.hash & mask;
+		while (table[index] != null) {
+			index = (index + 1) & mask;
+		}
+		table[index] = entry;
+		used++;
+	}
+
+	private boolean matches(CharSequence source, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != source.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,49 @@
+package com.hjonas.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// starts the threads of spawned functions. they are virtual threads when the vm has
+// them; the interpreter is built for java 17, so the factory is looked up at run
+// time and a pool of daemon threads stands in for it on older vms
+final class Threads {
+	private static final MethodHandle START_VIRTUAL = startVirtual();
+
+	private Threads() {
+	}
+
+	private static MethodHandle startVirtual() {
+		try {
+			return MethodHandles.publicLookup()
+					.findStatic(Thread.class, "startVirtualThread", MethodType.methodType(Thread.class, Runnable.class))
+					.asType(MethodType.methodType(void.class, Runnable.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	static void start(Runnable task) {
+		if (START_VIRTUAL == null) {
+			Pool.EXECUTOR.execute(task);
+			return;
+		}
+
+		try {
+			START_VIRTUAL.invokeExact(task);
+		} catch (Throwable e) {
+			throw new IllegalStateException("could not start a virtual thread", e);
+		}
+	}
+
+	// only created when there are no virtual threads
+	private static class Pool {
+		static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "lox-spawn");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
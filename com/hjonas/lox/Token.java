@@ -5,6 +5,7 @@ public class Token {
 	String lexeme;
 	Object literal;
 	int line;
+	Symbol symbol;
 
 	Token(TokenType type, String lexeme, Object literal, int line) {
 		this.type = type;
@@ -13,6 +14,11 @@ public class Token {
 		this.line = line;
 	}
 
+	Token(Symbol symbol, int line) {
+		this(TokenType.IDENTIFIER, symbol.name, null, line);
+		this.symbol = symbol;
+	}
+
 	public String toString() {
 		return type + " " + lexeme + " " + literal;
 	}
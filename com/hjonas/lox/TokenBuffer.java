@@ -0,0 +1,171 @@
+package com.hjonas.lox;
+
+import static com.hjonas.lox.TokenType.BANG;
+import static com.hjonas.lox.TokenType.BANG_EQUAL;
+import static com.hjonas.lox.TokenType.COMMA;
+import static com.hjonas.lox.TokenType.DOT;
+import static com.hjonas.lox.TokenType.EOF;
+import static com.hjonas.lox.TokenType.EQUAL;
+import static com.hjonas.lox.TokenType.EQUAL_EQUAL;
+import static com.hjonas.lox.TokenType.GREATER;
+import static com.hjonas.lox.TokenType.GREATER_EQUAL;
+import static com.hjonas.lox.TokenType.IDENTIFIER;
+import static com.hjonas.lox.TokenType.LEFT_BRACE;
+import static com.hjonas.lox.TokenType.LEFT_PAREN;
+import static com.hjonas.lox.TokenType.LESS;
+import static com.hjonas.lox.TokenType.LESS_EQUAL;
+import static com.hjonas.lox.TokenType.MINUS;
+import static com.hjonas.lox.TokenType.NUMBER;
+import static com.hjonas.lox.TokenType.PLUS;
+import static com.hjonas.lox.TokenType.RIGHT_BRACE;
+import static com.hjonas.lox.TokenType.RIGHT_PAREN;
+import static com.hjonas.lox.TokenType.SEMICOLON;
+import static com.hjonas.lox.TokenType.SLASH;
+import static com.hjonas.lox.TokenType.STAR;
+import static com.hjonas.lox.TokenType.STRING;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+// scanned tokens kept as parallel arrays instead of one object per token. lexemes
+// are only cut from the source when a token is materialized, and tokens with a
+// fixed spelling share one string per type
+class TokenBuffer implements Iterable<Token> {
+	private static final TokenType[] TYPES = TokenType.values();
+	private static final String[] SPELLINGS = new String[TYPES.length];
+
+	static {
+		spell(COMMA, ",");
+		spell(SEMICOLON, ";");
+		spell(DOT, ".");
+		spell(MINUS, "-");
+		spell(PLUS, "+");
+		spell(STAR, "*");
+		spell(LEFT_BRACE, "{");
+		spell(RIGHT_BRACE, "}");
+		spell(LEFT_PAREN, "(");
+		spell(RIGHT_PAREN, ")");
+		spell(SLASH, "/");
+		spell(BANG, "!");
+		spell(BANG_EQUAL, "!=");
+		spell(EQUAL, "=");
+		spell(EQUAL_EQUAL, "==");
+		spell(LESS, "<");
+		spell(LESS_EQUAL, "<=");
+		spell(GREATER, ">");
+		spell(GREATER_EQUAL, ">=");
+		spell(EOF, "\0");
+
+		for (Map.Entry<String, TokenType> keyword : Scanner.keywords.entrySet()) {
+			spell(keyword.getValue(), keyword.getKey());
+		}
+	}
+
+	private final CharSequence source;
+	private byte[] types = new byte[256];
+	private int[] starts = new int[256];
+	private int[] lengths = new int[256];
+	private int[] lines = new int[256];
+	private int size;
+
+	TokenBuffer(CharSequence source) {
+		this.source = source;
+	}
+
+	private static void spell(TokenType type, String spelling) {
+		SPELLINGS[type.ordinal()] = spelling;
+	}
+
+	private static String lexeme(CharSequence source, TokenType type, int start, int end) {
+		String spelling = SPELLINGS[type.ordinal()];
+
+		if (spelling != null) {
+			return spelling;
+		}
+		if (type == STRING) {
+			return source.subSequence(start + 1, end - 1).toString();
+		}
+		if (type == IDENTIFIER) {
+			return Symbol.intern(source, start, end).name;
+		}
+		return source.subSequence(start, end).toString();
+	}
+
+	private static Token token(CharSequence source, TokenType type, int start, int end, int line) {
+		if (type == IDENTIFIER) {
+			return new Token(Symbol.intern(source, start, end), line);
+		}
+
+		String lexeme = lexeme(source, type, start, end);
+		return new Token(type, lexeme, literal(type, lexeme), line);
+	}
+
+	private static Object literal(TokenType type, String lexeme) {
+		if (type == NUMBER) {
+			return Double.parseDouble(lexeme);
+		}
+		if (type == STRING) {
+			return lexeme;
+		}
+		return null;
+	}
+
+	void add(TokenType type, int start, int end, int line) {
+		if (size == types.length) {
+			int capacity = size * 2;
+			types = Arrays.copyOf(types, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+		}
+
+		types[size] = (byte) type.ordinal();
+		starts[size] = start;
+		lengths[size] = end - start;
+		lines[size] = line;
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	// keeps the arrays for the next batch of tokens
+	void clear() {
+		size = 0;
+	}
+
+	TokenType type(int index) {
+		return TYPES[types[index]];
+	}
+
+	int line(int index) {
+		return lines[index];
+	}
+
+	String lexeme(int index) {
+		return lexeme(source, type(index), starts[index], starts[index] + lengths[index]);
+	}
+
+	Token token(int index) {
+		return token(source, type(index), starts[index], starts[index] + lengths[index], lines[index]);
+	}
+
+	@Override
+	public Iterator<Token> iterator() {
+		return new Iterator<Token>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Token next() {
+				return token(next++);
+			}
+		};
+	}
+}
@@ -11,6 +11,8 @@ public enum TokenType {
 	RIGHT_BRACE,
 	LEFT_PAREN,
 	RIGHT_PAREN,
+	LEFT_BRACKET,
+	RIGHT_BRACKET,
 
 	SLASH,
 	BANG,
@@ -0,0 +1,488 @@
+package com.hjonas.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class VM {
+	// stack marker for a number held unboxed in the parallel numbers array
+	private static final Object NUMBER = new Object();
+
+	final Interpreter interpreter;
+	private final Environment globals;
+	private final Governor governor;
+	private Object[] stack = new Object[256];
+	private double[] numbers = new double[256];
+	private int sp;
+
+	VM(Interpreter interpreter) {
+		this.interpreter = interpreter;
+		this.globals = interpreter.globals;
+		this.governor = interpreter.governor;
+	}
+
+	void interpret(CompiledScript compiled) {
+		Chunk script = compiled.chunk;
+
+		if (script == null) {
+			script = new Compiler(interpreter.reporter).compile(compiled.statements);
+
+			if (script == null) {
+				return;
+			}
+			compiled.chunk = script;
+		}
+
+		sp = 0;
+		try {
+			run(script, globals);
+		} catch (RuntimeError e) {
+			interpreter.reporter.runtimeError(e);
+		}
+	}
+
+	Object call(VmFunction function, List<Object> arguments) {
+		Environment frame = new Environment(function.closure, function.chunk.frameSize);
+
+		for (int i = 0; i < arguments.size(); i++) {
+			frame.define(i, arguments.get(i));
+		}
+
+		return run(function.chunk, frame);
+	}
+
+	private Object run(Chunk chunk, Environment frame) {
+		byte[] code = chunk.code;
+		Object[] constants = chunk.constants;
+		final int base = sp;
+
+		reserve(base + chunk.maxStack);
+
+		Object[] stack = this.stack;
+		double[] numbers = this.numbers;
+		Environment env = frame;
+		int sp = base;
+		int ip = 0;
+
+		try {
+			while (true) {
+				switch (code[ip++]) {
+					case OpCode.CONSTANT: {
+						Object constant = constants[readShort(code, ip)];
+						ip += 2;
+						if (constant instanceof Double) {
+							numbers[sp] = (double) constant;
+							stack[sp++] = NUMBER;
+						} else {
+							stack[sp++] = constant;
+						}
+						break;
+					}
+					case OpCode.NIL: {
+						stack[sp++] = null;
+						break;
+					}
+					case OpCode.TRUE: {
+						stack[sp++] = true;
+						break;
+					}
+					case OpCode.FALSE: {
+						stack[sp++] = false;
+						break;
+					}
+					case OpCode.POP: {
+						sp--;
+						break;
+					}
+					case OpCode.GET_LOCAL: {
+						int depth = readShort(code, ip);
+						int slot = readShort(code, ip + 2);
+						ip += 4;
+						stack[sp++] = env.getAt(depth, slot);
+						break;
+					}
+					case OpCode.SET_LOCAL: {
+						int depth = readShort(code, ip);
+						int slot = readShort(code, ip + 2);
+						ip += 4;
+						env.assignAt(depth, slot, box(stack, numbers, sp - 1));
+						break;
+					}
+					case OpCode.DEFINE_LOCAL: {
+						env.define(readShort(code, ip), box(stack, numbers, --sp));
+						ip += 2;
+						break;
+					}
+					case OpCode.GET_GLOBAL: {
+						int index = readShort(code, ip);
+						ip += 2;
+						stack[sp++] = cell(chunk, index).get((Token) constants[index]);
+						break;
+					}
+					case OpCode.SET_GLOBAL: {
+						int index = readShort(code, ip);
+						ip += 2;
+						cell(chunk, index).assign((Token) constants[index], box(stack, numbers, sp - 1));
+						break;
+					}
+					case OpCode.DEFINE_GLOBAL: {
+						int index = readShort(code, ip);
+						ip += 2;
+						cell(chunk, index).value = box(stack, numbers, --sp);
+						break;
+					}
+					case OpCode.ADD: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+
+						if (isNumber(left) && isNumber(right)) {
+							numbers[sp - 1] = number(numbers, sp - 1, left) + number(numbers, sp, right);
+							stack[sp - 1] = NUMBER;
+						} else if (left instanceof String || right instanceof String) {
+							stack[sp - 1] = Interpreter.stringify(box(stack, numbers, sp - 1))
+									+ Interpreter.stringify(box(stack, numbers, sp));
+						} else {
+							throw error(chunk, ip - 1, "operands must be two strings or two numbers");
+						}
+						break;
+					}
+					case OpCode.SUBTRACT: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+						checkNumberOperands(chunk, ip - 1, left, right);
+						numbers[sp - 1] = number(numbers, sp - 1, left) - number(numbers, sp, right);
+						stack[sp - 1] = NUMBER;
+						break;
+					}
+					case OpCode.MULTIPLY: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+						checkNumberOperands(chunk, ip - 1, left, right);
+						numbers[sp - 1] = number(numbers, sp - 1, left) * number(numbers, sp, right);
+						stack[sp - 1] = NUMBER;
+						break;
+					}
+					case OpCode.DIVIDE: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+						if (isNumber(right) && number(numbers, sp, right) == 0) {
+							throw error(chunk, ip - 1, "division by zero.");
+						}
+						checkNumberOperands(chunk, ip - 1, left, right);
+						numbers[sp - 1] = number(numbers, sp - 1, left) / number(numbers, sp, right);
+						stack[sp - 1] = NUMBER;
+						break;
+					}
+					case OpCode.NEGATE: {
+						Object right = stack[sp - 1];
+						checkNumberOperand(chunk, ip - 1, right);
+						numbers[sp - 1] = -number(numbers, sp - 1, right);
+						stack[sp - 1] = NUMBER;
+						break;
+					}
+					case OpCode.NOT: {
+						Object right = stack[sp - 1];
+						checkNumberOperand(chunk, ip - 1, right);
+						stack[sp - 1] = !Interpreter.isTruthy(right);
+						break;
+					}
+					case OpCode.EQUAL: {
+						sp--;
+						stack[sp - 1] = Interpreter.isEqual(box(stack, numbers, sp - 1), box(stack, numbers, sp));
+						break;
+					}
+					case OpCode.NOT_EQUAL: {
+						sp--;
+						stack[sp - 1] = !Interpreter.isEqual(box(stack, numbers, sp - 1), box(stack, numbers, sp));
+						break;
+					}
+					case OpCode.GREATER: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+						checkNumberOperands(chunk, ip - 1, left, right);
+						stack[sp - 1] = number(numbers, sp - 1, left) > number(numbers, sp, right);
+						break;
+					}
+					case OpCode.GREATER_EQUAL: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+						checkNumberOperands(chunk, ip - 1, left, right);
+						stack[sp - 1] = number(numbers, sp - 1, left) >= number(numbers, sp, right);
+						break;
+					}
+					case OpCode.LESS: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+						checkNumberOperands(chunk, ip - 1, left, right);
+						stack[sp - 1] = number(numbers, sp - 1, left) < number(numbers, sp, right);
+						break;
+					}
+					case OpCode.LESS_EQUAL: {
+						Object right = stack[--sp];
+						Object left = stack[sp - 1];
+						checkNumberOperands(chunk, ip - 1, left, right);
+						stack[sp - 1] = number(numbers, sp - 1, left) <= number(numbers, sp, right);
+						break;
+					}
+					case OpCode.JUMP: {
+						ip += readShort(code, ip) + 2;
+						break;
+					}
+					case OpCode.JUMP_IF_FALSE: {
+						if (Interpreter.isTruthy(stack[sp - 1])) {
+							ip += 2;
+						} else {
+							ip += readShort(code, ip) + 2;
+						}
+						break;
+					}
+					case OpCode.LOOP: {
+						governor.tick();
+						ip -= readShort(code, ip) - 2;
+						break;
+					}
+					case OpCode.PUSH_SCOPE: {
+						env = new Environment(env, readShort(code, ip));
+						ip += 2;
+						break;
+					}
+					case OpCode.POP_SCOPE: {
+						env = env.enclosing;
+						break;
+					}
+					case OpCode.CLOSURE: {
+						Chunk function = (Chunk) constants[readShort(code, ip)];
+						ip += 2;
+						stack[sp++] = new VmFunction(this, function, env);
+						break;
+					}
+					case OpCode.TAIL_CALL: {
+						int argCount = code[ip] & 0xff;
+						Object callee = stack[sp - argCount - 1];
+
+						// a lox function runs in place of this one, on the same java frame
+						if (callee instanceof VmFunction && ((VmFunction) callee).chunk.arity == argCount) {
+							governor.tick();
+							VmFunction function = (VmFunction) callee;
+							env = new Environment(function.closure, function.chunk.frameSize);
+							for (int i = 0; i < argCount; i++) {
+								env.values[i] = box(stack, numbers, sp - argCount + i);
+							}
+
+							Arrays.fill(stack, base, sp, null);
+							chunk = function.chunk;
+							code = chunk.code;
+							constants = chunk.constants;
+							reserve(base + chunk.maxStack);
+							stack = this.stack;
+							numbers = this.numbers;
+							sp = base;
+							ip = 0;
+							break;
+						}
+						// anything else is called like from any other call
+						sp = callFromStack(chunk, ip++ - 1, sp, argCount);
+						stack = this.stack;
+						numbers = this.numbers;
+						break;
+					}
+					case OpCode.CALL: {
+						int argCount = code[ip++] & 0xff;
+						sp = callFromStack(chunk, ip - 2, sp, argCount);
+						stack = this.stack;
+						numbers = this.numbers;
+						break;
+					}
+					case OpCode.RETURN: {
+						return box(stack, numbers, sp - 1);
+					}
+					case OpCode.PRINT: {
+						interpreter.out.println(Interpreter.stringify(box(stack, numbers, --sp)));
+						break;
+					}
+					case OpCode.ARRAY: {
+						int count = readShort(code, ip);
+						ip += 2;
+						LoxArray array = new LoxArray(count);
+
+						for (int i = sp - count; i < sp; i++) {
+							if (stack[i] == NUMBER) {
+								array.push(numbers[i]);
+							} else {
+								array.push(stack[i]);
+							}
+						}
+						sp -= count;
+						stack[sp++] = array;
+						break;
+					}
+					case OpCode.GET_INDEX: {
+						Object position = stack[--sp];
+						LoxArray array = array(chunk, ip - 1, stack[sp - 1]);
+
+						synchronized (array) {
+							int index = index(chunk, ip - 1, array, numbers, sp, position);
+
+							// elements of a numeric array stay unboxed on the way to the stack
+							if (array.isNumeric()) {
+								numbers[sp - 1] = array.number(index);
+								stack[sp - 1] = NUMBER;
+							} else {
+								stack[sp - 1] = array.get(index);
+							}
+						}
+						break;
+					}
+					case OpCode.SET_INDEX: {
+						Object value = stack[--sp];
+						Object position = stack[--sp];
+						LoxArray array = array(chunk, ip - 1, stack[sp - 1]);
+
+						synchronized (array) {
+							int index = index(chunk, ip - 1, array, numbers, sp, position);
+
+							if (value == NUMBER) {
+								array.set(index, numbers[sp + 1]);
+								numbers[sp - 1] = numbers[sp + 1];
+							} else {
+								array.set(index, value);
+							}
+						}
+						stack[sp - 1] = value;
+						break;
+					}
+				}
+			}
+		} finally {
+			Arrays.fill(stack, base, sp, null);
+			this.sp = base;
+		}
+	}
+
+	// calls the callee under the arguments on top of the stack and leaves the result
+	// in its slot. the stack may grow during the call, so callers reload it after
+	private int callFromStack(Chunk chunk, int offset, int sp, int argCount) {
+		governor.tick();
+		for (int i = sp - argCount; i < sp; i++) {
+			stack[i] = box(stack, numbers, i);
+		}
+		this.sp = sp;
+		Object result = call(chunk, offset, stack[sp - argCount - 1], argCount);
+		sp -= argCount;
+		stack[sp - 1] = result;
+		return sp;
+	}
+
+	private Object call(Chunk chunk, int offset, Object callee, int argCount) {
+		if (!(callee instanceof LoxCallable)) {
+			throw error(chunk, offset, "Can only call functions and classes.");
+		}
+
+		if (callee instanceof VmFunction) {
+			VmFunction function = (VmFunction) callee;
+
+			if (argCount != function.chunk.arity) {
+				throw error(chunk, offset, "Expected " + function.chunk.arity
+						+ " arguments but got " + argCount + ".");
+			}
+
+			Environment frame = new Environment(function.closure, function.chunk.frameSize);
+			System.arraycopy(stack, sp - argCount, frame.values, 0, argCount);
+			try {
+				return run(function.chunk, frame);
+			} catch (StackOverflowError e) {
+				throw error(chunk, offset, "Stack overflow.");
+			}
+		}
+
+		LoxCallable function = (LoxCallable) callee;
+		List<Object> args = new ArrayList<>(argCount);
+		for (int i = sp - argCount; i < sp; i++) {
+			args.add(stack[i]);
+		}
+
+		if (argCount != function.arity()) {
+			throw error(chunk, offset, "Expected " + function.arity()
+					+ " arguments but got " + argCount + ".");
+		}
+
+		return interpreter.callNative(function, token(chunk, offset), args);
+	}
+
+	private void reserve(int size) {
+		if (size > stack.length) {
+			stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size));
+			numbers = Arrays.copyOf(numbers, stack.length);
+		}
+	}
+
+	private GlobalCell cell(Chunk chunk, int index) {
+		GlobalCell cell = chunk.cells[index];
+
+		if (cell == null || cell.owner != globals) {
+			cell = globals.cell(((Token) chunk.constants[index]).symbol);
+			chunk.cells[index] = cell;
+		}
+		return cell;
+	}
+
+	private static boolean isNumber(Object value) {
+		return value == NUMBER || value instanceof Double;
+	}
+
+	private static double number(double[] numbers, int index, Object value) {
+		return value == NUMBER ? numbers[index] : (double) value;
+	}
+
+	private static Object box(Object[] stack, double[] numbers, int index) {
+		Object value = stack[index];
+		if (value == NUMBER) {
+			value = numbers[index];
+			stack[index] = value;
+		}
+		return value;
+	}
+
+	private LoxArray array(Chunk chunk, int offset, Object value) {
+		if (value instanceof LoxArray) {
+			return (LoxArray) value;
+		}
+		throw error(chunk, offset, "can only index arrays.");
+	}
+
+	private int index(Chunk chunk, int offset, LoxArray array, double[] numbers, int at, Object position) {
+		int index = isNumber(position) ? array.index(number(numbers, at, position)) : -1;
+
+		if (index < 0) {
+			throw error(chunk, offset, "array index must be a whole number within bounds.");
+		}
+		return index;
+	}
+
+	private static int readShort(byte[] code, int ip) {
+		return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+	}
+
+	private void checkNumberOperand(Chunk chunk, int offset, Object operand) {
+		if (isNumber(operand)) {
+			return;
+		}
+		throw error(chunk, offset, "operand must be a number.");
+	}
+
+	private void checkNumberOperands(Chunk chunk, int offset, Object left, Object right) {
+		if (isNumber(left) && isNumber(right)) {
+			return;
+		}
+		throw error(chunk, offset, "operands must be a number.");
+	}
+
+	private RuntimeError error(Chunk chunk, int offset, String message) {
+		return new RuntimeError(token(chunk, offset), message);
+	}
+
+	// stands in for the source token of an instruction, which the vm doesn't keep
+	private static Token token(Chunk chunk, int offset) {
+		return new Token(TokenType.IDENTIFIER, chunk.name, null, chunk.lines[offset]);
+	}
+}
@@ -0,0 +1,32 @@
+package com.hjonas.lox;
+
+import java.util.List;
+
+class VmFunction implements LoxCallable {
+	final Chunk chunk;
+	final Environment closure;
+	private final VM vm;
+
+	VmFunction(VM vm, Chunk chunk, Environment closure) {
+		this.vm = vm;
+		this.chunk = chunk;
+		this.closure = closure;
+	}
+
+	@Override
+	public int arity() {
+		return chunk.arity;
+	}
+
+	@Override
+	public Object call(Interpreter interpreter, List<Object> arguments) {
+		// a spawned thread has its own interpreter and needs a vm with its own stack
+		VM target = interpreter == vm.interpreter ? vm : new VM(interpreter);
+		return target.call(this, arguments);
+	}
+
+	@Override
+	public String toString() {
+		return "<fn " + chunk.name + ">";
+	}
+}